@@ -28,6 +28,8 @@ import java.util.EnumSet;
  *      6. Time was captured only after three ignored consecutive runs; the first three runs are ignored to achieve a trend.
  *         The first-time run is always slower than the subsequent runs.
  *
+ * CopyBenchmark runs every one of these strategies over generated files for a whole grid of buffer and
+ * file sizes, with warmup and error bars, use it instead of editing the paths and buffer size here.
  *
  * Created by gxy on 2016/6/24.
  */
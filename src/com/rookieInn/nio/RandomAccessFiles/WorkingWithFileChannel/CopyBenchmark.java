@@ -0,0 +1,359 @@
+package com.rookieInn.nio.RandomAccessFiles.WorkingWithFileChannel;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Repeatable version of BenchmarkingFileChannelCopyCapabilities, run the way JMH runs a benchmark.
+ *
+ *  Every copy strategy of BenchmarkingFileChannelCopyCapabilities, plus FileCopier's choice, is measured for every buffer size and
+ *  file size (the @Param axes of a JMH benchmark), strategies that take no buffer run once per file size.
+ *  The source files are generated in a temp directory, which is deleted at the end. Each combination
+ *  gets `warmup` copies that are thrown away and then `iterations` measured copies, the result is the
+ *  mean throughput with a 99.9% confidence interval from Student's t distribution, like JMH's "Error".
+ *
+ *  The source file stays in the page cache, so the numbers compare the copy paths, not the disk. With
+ *  -Dbench.force=true every copy ends with FileChannel.force(), which brings the device back in.
+ *
+ *  -Dbench.strategies=all | BUFFER_NON_DIRECT,TRANSFER_TO,...
+ *  -Dbench.bufferSizes=4,16,32,64,128,1024     (KB)
+ *  -Dbench.fileSizes=16,256                    (MB)
+ *  -Dbench.warmup=3 -Dbench.iterations=5 -Dbench.dir=<temp dir> -Dbench.force=false
+ */
+public class CopyBenchmark {
+
+    private static final int MAP_WINDOW = 256 * 1024 * 1024;
+
+    enum Strategy {
+        BUFFER_NON_DIRECT(true) {
+            @Override
+            void copy(Path from, Path to, int bufferSize) throws IOException {
+                channelCopy(from, to, ByteBuffer.allocate(bufferSize));
+            }
+        },
+        BUFFER_DIRECT(true) {
+            @Override
+            void copy(Path from, Path to, int bufferSize) throws IOException {
+                channelCopy(from, to, ByteBuffer.allocateDirect(bufferSize));
+            }
+        },
+        TRANSFER_TO(false) {
+            @Override
+            void copy(Path from, Path to, int bufferSize) throws IOException {
+                try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+                     FileChannel out = FileChannel.open(to, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    //transferTo may move fewer bytes than asked for
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        long transferred = in.transferTo(position, size - position, out);
+                        if (transferred <= 0) {
+                            throw stalled(in, position, size);
+                        }
+                        position += transferred;
+                    }
+                    force(out);
+                }
+            }
+        },
+        TRANSFER_FROM(false) {
+            @Override
+            void copy(Path from, Path to, int bufferSize) throws IOException {
+                try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+                     FileChannel out = FileChannel.open(to, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        long transferred = out.transferFrom(in, position, size - position);
+                        if (transferred <= 0) {
+                            throw stalled(in, position, size);
+                        }
+                        position += transferred;
+                    }
+                    force(out);
+                }
+            }
+        },
+        MAP(false) {
+            @Override
+            void copy(Path from, Path to, int bufferSize) throws IOException {
+                try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+                     FileChannel out = FileChannel.open(to, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    //a single mapping cannot exceed 2 GB, map the file a window at a time
+                    long size = in.size();
+                    for (long position = 0; position < size; position += MAP_WINDOW) {
+                        MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer);
+                        }
+                    }
+                    force(out);
+                }
+            }
+        },
+        BUFFERED_STREAM(true) {
+            @Override
+            void copy(Path from, Path to, int bufferSize) throws IOException {
+                //the file is forced after the flush, closing it again after out is a no-op
+                try (FileOutputStream file = new FileOutputStream(to.toFile());
+                     BufferedInputStream in = new BufferedInputStream(new FileInputStream(from.toFile()));
+                     BufferedOutputStream out = new BufferedOutputStream(file)) {
+                    streamCopy(in, out, bufferSize);
+                    out.flush();
+                    force(file.getChannel());
+                }
+            }
+        },
+        UNBUFFERED_STREAM(true) {
+            @Override
+            void copy(Path from, Path to, int bufferSize) throws IOException {
+                try (FileInputStream in = new FileInputStream(from.toFile());
+                     FileOutputStream out = new FileOutputStream(to.toFile())) {
+                    streamCopy(in, out, bufferSize);
+                    force(out.getChannel());
+                }
+            }
+        },
+        FILES_COPY_PATH_TO_PATH(false) {
+            @Override
+            void copy(Path from, Path to, int bufferSize) throws IOException {
+                Files.copy(from, to, LinkOption.NOFOLLOW_LINKS);
+                forceFile(to);
+            }
+        },
+        FILES_COPY_STREAM_TO_PATH(false) {
+            @Override
+            void copy(Path from, Path to, int bufferSize) throws IOException {
+                try (InputStream in = new FileInputStream(from.toFile())) {
+                    Files.copy(in, to);
+                }
+                forceFile(to);
+            }
+        },
+        FILES_COPY_PATH_TO_STREAM(false) {
+            @Override
+            void copy(Path from, Path to, int bufferSize) throws IOException {
+                try (FileOutputStream out = new FileOutputStream(to.toFile())) {
+                    Files.copy(from, out);
+                    force(out.getChannel());
+                }
+            }
+        },
+        ADAPTIVE(false) {
+            @Override
+            void copy(Path from, Path to, int bufferSize) throws IOException {
+                copier.copy(from, to);
+                forceFile(to);
+            }
+        };
+
+        final boolean usesBuffer;
+
+        Strategy(boolean usesBuffer) {
+            this.usesBuffer = usesBuffer;
+        }
+
+        abstract void copy(Path from, Path to, int bufferSize) throws IOException;
+    }
+
+    private static boolean forceToDisk = false;
+    private static final FileCopier copier = new FileCopier();
+
+    public static void main(String[] args) throws IOException {
+        List<Strategy> strategies = parseStrategies(System.getProperty("bench.strategies", "all"));
+        int[] bufferSizes = parseSizes(System.getProperty("bench.bufferSizes", "4,16,32,64,128,1024"));
+        int[] fileSizes = parseSizes(System.getProperty("bench.fileSizes", "16,256"));
+        int warmup = Integer.getInteger("bench.warmup", 3);
+        int iterations = Integer.getInteger("bench.iterations", 5);
+        forceToDisk = Boolean.getBoolean("bench.force");
+        String dir = System.getProperty("bench.dir");
+
+        Path work = dir == null ? Files.createTempDirectory("copy-bench") : Files.createTempDirectory(Paths.get(dir), "copy-bench");
+        try {
+            System.out.println(String.format(Locale.ROOT, "%-26s %8s %8s %5s %10s    %-8s %s", "Benchmark", "buffer", "file", "Cnt", "Score", "Error", "Units"));
+            for (int fileSizeMB : fileSizes) {
+                Path source = work.resolve("source-" + fileSizeMB + "MB.bin");
+                generate(source, fileSizeMB * 1024L * 1024L);
+                Path target = work.resolve("target.bin");
+
+                for (Strategy strategy : strategies) {
+                    int[] sizes = strategy.usesBuffer ? bufferSizes : new int[]{0};
+                    for (int bufferKB : sizes) {
+                        double[] scores = new double[iterations];
+                        for (int i = -warmup; i < iterations; i++) {
+                            Files.deleteIfExists(target);
+                            long start = System.nanoTime();
+                            strategy.copy(source, target, bufferKB * 1024);
+                            long elapsed = System.nanoTime() - start;
+                            if (i >= 0) {
+                                scores[i] = fileSizeMB * 1e9 / elapsed;
+                            }
+                            //every byte of the first copy, then only the size, reading the target costs time between copies
+                            verify(source, target, i == -warmup);
+                        }
+                        System.out.println(String.format(Locale.ROOT, "%-26s %8s %8s %5d %10.1f +- %-8.1f MB/s",
+                                strategy, strategy.usesBuffer ? bufferKB + "KB" : "-", fileSizeMB + "MB", iterations,
+                                mean(scores), error(scores)));
+                    }
+                }
+                Files.deleteIfExists(target);
+                Files.delete(source);
+            }
+        } finally {
+            deleteTree(work);
+        }
+    }
+
+    private static void channelCopy(Path from, Path to, ByteBuffer buffer) throws IOException {
+        try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(to, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (in.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+            force(out);
+        }
+    }
+
+    private static void streamCopy(InputStream in, OutputStream out, int bufferSize) throws IOException {
+        byte[] byteArray = new byte[bufferSize];
+        int bytesCount;
+        while ((bytesCount = in.read(byteArray)) != -1) {
+            out.write(byteArray, 0, bytesCount);
+        }
+    }
+
+    private static void force(FileChannel channel) throws IOException {
+        if (forceToDisk) {
+            channel.force(true);
+        }
+    }
+
+    //a transfer that moved nothing would loop forever, and falling back would measure another strategy
+    private static IOException stalled(FileChannel in, long position, long size) throws IOException {
+        if (position >= in.size()) {
+            return new EOFException("Source ended at " + position + " of " + size + " bytes");
+        }
+        return new IOException("Transfer made no progress at " + position + " of " + size + " bytes");
+    }
+
+    private static void forceFile(Path path) throws IOException {
+        if (forceToDisk) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    //random content, so no file system can compress or deduplicate it
+    private static void generate(Path path, long size) throws IOException {
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(42).nextBytes(chunk);
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            for (long written = 0; written < size; ) {
+                buffer.clear();
+                buffer.limit((int) Math.min(chunk.length, size - written));
+                written += out.write(buffer);
+            }
+        }
+    }
+
+    private static void verify(Path source, Path target, boolean content) throws IOException {
+        if (Files.size(source) != Files.size(target)) {
+            throw new IOException("Copy of " + source + " has " + Files.size(target) + " bytes instead of " + Files.size(source));
+        }
+        long mismatch = content ? Files.mismatch(source, target) : -1;
+        if (mismatch != -1) {
+            throw new IOException("Copy of " + source + " differs at byte " + mismatch);
+        }
+    }
+
+    private static double mean(double[] scores) {
+        double sum = 0;
+        for (double score : scores) {
+            sum += score;
+        }
+        return sum / scores.length;
+    }
+
+    //half width of the 99.9% confidence interval of the mean
+    private static double error(double[] scores) {
+        int n = scores.length;
+        if (n < 2) {
+            return Double.NaN;
+        }
+        double mean = mean(scores);
+        double squares = 0;
+        for (double score : scores) {
+            squares += (score - mean) * (score - mean);
+        }
+        double deviation = Math.sqrt(squares / (n - 1));
+        return studentT999(n - 1) * deviation / Math.sqrt(n);
+    }
+
+    //two-sided 99.9% quantile of Student's t, rounded to the next smaller tabulated degree of freedom
+    private static double studentT999(int degreesOfFreedom) {
+        final int[] df = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 12, 15, 20, 30, 60, 120};
+        final double[] t = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59, 4.32, 4.07, 3.85, 3.65, 3.46, 3.37};
+        if (degreesOfFreedom > 1000) {
+            return 3.29;
+        }
+        for (int i = df.length - 1; i >= 0; i--) {
+            if (degreesOfFreedom >= df[i]) {
+                return t[i];
+            }
+        }
+        return t[0];
+    }
+
+    private static List<Strategy> parseStrategies(String spec) {
+        List<Strategy> strategies = new ArrayList<>();
+        if ("all".equals(spec)) {
+            for (Strategy strategy : Strategy.values()) {
+                strategies.add(strategy);
+            }
+            return strategies;
+        }
+        for (String name : spec.split(",")) {
+            strategies.add(Strategy.valueOf(name.trim()));
+        }
+        return strategies;
+    }
+
+    private static int[] parseSizes(String spec) {
+        String[] parts = spec.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        return sizes;
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
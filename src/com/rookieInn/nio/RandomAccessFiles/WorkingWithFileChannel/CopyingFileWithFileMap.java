@@ -23,9 +23,15 @@ public class CopyingFileWithFileMap {
         FileChannel channel_from = FileChannel.open(copy_from, EnumSet.of(StandardOpenOption.READ));
         FileChannel channel_to = FileChannel.open(copy_to, EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
 
-        MappedByteBuffer buffer = channel_from.map(FileChannel.MapMode.READ_ONLY, 0, channel_from.size());
-        channel_to.write(buffer);
-        buffer.clear();
+        //a single map() cannot exceed 2 GB, map the file a window at a time
+        final long WINDOW = 64 * 1024 * 1024;
+        long size = channel_from.size();
+        for (long position = 0; position < size; position += WINDOW) {
+            MappedByteBuffer buffer = channel_from.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+            while (buffer.hasRemaining()) {
+                channel_to.write(buffer);
+            }
+        }
         System.out.println("end ...");
     }
 
@@ -8,6 +8,8 @@ import java.nio.file.StandardOpenOption;
 import java.util.EnumSet;
 
 /**
+ * Copying Files with FileChannel.transferTo(), FileCopier picks between this and the other methods per file.
+ *
  * Created by gxy on 2016/6/24.
  */
 public class CopyingFileWithTransferTo {
@@ -21,7 +23,17 @@ public class CopyingFileWithTransferTo {
         FileChannel channel_from = FileChannel.open(copy_from, EnumSet.of(StandardOpenOption.READ));
         FileChannel channel_to = FileChannel.open(copy_to, EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
 
-        channel_from.transferTo(0L, channel_from.size(), channel_to);
+        //a single call may move fewer bytes than asked for (at most 2 GB on Linux), loop until everything is copied
+        long size = channel_from.size();
+        long position = 0;
+        while (position < size) {
+            long transferred = channel_from.transferTo(position, size - position, channel_to);
+            //0 forever would loop forever, the source was truncated or the channels stopped moving bytes
+            if (transferred <= 0) {
+                throw new IOException("Transfer stopped at " + position + " of " + size + " bytes");
+            }
+            position += transferred;
+        }
 
     }
 
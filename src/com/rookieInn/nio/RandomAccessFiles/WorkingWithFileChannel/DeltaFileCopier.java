@@ -0,0 +1,271 @@
+package com.rookieInn.nio.RandomAccessFiles.WorkingWithFileChannel;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Brings an existing copy of a large file up to date by writing only the blocks that changed, for files
+ * like VM images and database snapshots that are modified in place a few KB at a time.
+ *
+ *  The target is cut into blocks of blockSize bytes and its signature, one MD5 per block, is kept together
+ *  with the size and last modified time the target had when the signature was taken. The source is read
+ *  once, block by block, and every block whose MD5 differs from the signature of the block at the same
+ *  position is written to the target with a positional write. So while the signature is valid the target
+ *  is never read, a copy costs one sequential read of the source and the writes of the changed blocks. A
+ *  missing or outdated signature is computed from the target first.
+ *
+ *  Signatures live in a cache directory of their own (-Ddeltacopier.signatures, default ~/.deltafilecopier),
+ *  named after the MD5 of the target's absolute path, so a mirrored tree never gets files that its source
+ *  does not have.
+ *
+ *  Blocks are only compared at their own position, the target is updated in place and a local source is
+ *  already in memory, so a block found elsewhere in the target would cost as much to copy as to write.
+ *
+ *  The target gets the last modified time of the source and a new signature. The signature is deleted
+ *  before the first write, an interrupted copy leaves none and the next run reads the target again.
+ *  Whoever deletes a target calls forget(), otherwise its signature stays in the cache.
+ *
+ *  usage: DeltaFileCopier <from> <to> [blockKB]
+ */
+public class DeltaFileCopier {
+
+    private static final String SIGNATURE_SUFFIX = ".sig";
+    private static final int SIGNATURE_MAGIC = 0x44454c54;
+    private static final int SIGNATURE_HEADER = 4 + 4 + 8 + 8;
+    private static final int DIGEST_LENGTH = 16;
+    private static final int READ_SIZE = 1024 * 1024;
+
+    private final int blockSize;
+    private final Path signatureDir;
+
+    public DeltaFileCopier(int blockSize) {
+        this(blockSize, Paths.get(System.getProperty("deltacopier.signatures",
+                System.getProperty("user.home") + File.separator + ".deltafilecopier")));
+    }
+
+    public DeltaFileCopier(int blockSize, Path signatureDir) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.blockSize = blockSize;
+        this.signatureDir = signatureDir;
+    }
+
+    //where the signature of target is cached, named after its absolute path
+    public Path signaturePath(Path target) {
+        byte[] digest = md5().digest(target.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder name = new StringBuilder(2 * DIGEST_LENGTH + SIGNATURE_SUFFIX.length());
+        for (byte b : digest) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return signatureDir.resolve(name.append(SIGNATURE_SUFFIX).toString());
+    }
+
+    //drop the cached signature of a target that is going away
+    public void forget(Path target) throws IOException {
+        Files.deleteIfExists(signaturePath(target));
+    }
+
+    //update to from from, return the number of bytes written to it
+    public long copy(Path from, Path to) throws IOException {
+        Path signaturePath = signaturePath(to);
+        byte[] signature = readSignature(signaturePath, to);
+        if (signature == null) {
+            signature = computeSignature(to);
+        }
+        Files.deleteIfExists(signaturePath);
+
+        FileTime modified = Files.getLastModifiedTime(from);
+        long written = 0;
+        byte[] newSignature;
+        try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(to, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            int blocks = blocks(size);
+            newSignature = new byte[blocks * DIGEST_LENGTH];
+            MessageDigest md5 = md5();
+            byte[] digest = new byte[DIGEST_LENGTH];
+            ByteBuffer buffer = ByteBuffer.allocateDirect(readSize());
+
+            long position = 0;
+            while (position < size) {
+                read(in, buffer, position, size);
+                while (buffer.hasRemaining()) {
+                    int block = (int) (position / blockSize);
+                    ByteBuffer data = buffer.duplicate();
+                    data.limit(data.position() + Math.min(blockSize, data.remaining()));
+                    int start = data.position();
+                    int length = data.remaining();
+                    buffer.position(data.limit());
+
+                    md5.update(data.duplicate());
+                    md5.digest(digest, 0, DIGEST_LENGTH);
+                    System.arraycopy(digest, 0, newSignature, block * DIGEST_LENGTH, DIGEST_LENGTH);
+
+                    //a block past the end of the old target has no signature and is always written
+                    boolean same = (block + 1) * DIGEST_LENGTH <= signature.length
+                            && equals(signature, block * DIGEST_LENGTH, digest);
+                    if (!same) {
+                        while (data.hasRemaining()) {
+                            out.write(data, position + data.position() - start);
+                        }
+                        written += length;
+                    }
+                    position += length;
+                }
+            }
+            if (out.size() > size) {
+                out.truncate(size);
+            }
+        } catch (DigestException e) {
+            throw new IOException(e);
+        }
+
+        Files.setLastModifiedTime(to, modified);
+        writeSignature(signaturePath, to, newSignature);
+        return written;
+    }
+
+    //the MD5 of every block of file, an empty signature when it does not exist
+    public byte[] computeSignature(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            byte[] signature = new byte[blocks(size) * DIGEST_LENGTH];
+            MessageDigest md5 = md5();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(readSize());
+            long position = 0;
+            int offset = 0;
+            while (position < size) {
+                read(channel, buffer, position, size);
+                while (buffer.hasRemaining()) {
+                    ByteBuffer block = buffer.duplicate();
+                    block.limit(block.position() + Math.min(blockSize, block.remaining()));
+                    position += block.remaining();
+                    buffer.position(block.limit());
+                    md5.update(block);
+                    md5.digest(signature, offset, DIGEST_LENGTH);
+                    offset += DIGEST_LENGTH;
+                }
+            }
+            return signature;
+        } catch (NoSuchFileException e) {
+            return new byte[0];
+        } catch (DigestException e) {
+            throw new IOException(e);
+        }
+    }
+
+    //the cached signature, null when it is missing or does not describe target as it is now
+    private byte[] readSignature(Path signaturePath, Path target) throws IOException {
+        if (!Files.isRegularFile(signaturePath) || !Files.isRegularFile(target)) {
+            return null;
+        }
+        long size = Files.size(target);
+        long modified = Files.getLastModifiedTime(target).toMillis();
+        try (FileChannel channel = FileChannel.open(signaturePath, StandardOpenOption.READ)) {
+            long expected = SIGNATURE_HEADER + (long) blocks(size) * DIGEST_LENGTH;
+            if (channel.size() != expected) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(SIGNATURE_HEADER);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != SIGNATURE_MAGIC || header.getInt() != blockSize
+                    || header.getLong() != size || header.getLong() != modified) {
+                return null;
+            }
+            ByteBuffer digests = ByteBuffer.allocate((int) (expected - SIGNATURE_HEADER));
+            readFully(channel, digests, SIGNATURE_HEADER);
+            return digests.array();
+        }
+    }
+
+    private void writeSignature(Path signaturePath, Path target, byte[] signature) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SIGNATURE_HEADER);
+        header.putInt(SIGNATURE_MAGIC).putInt(blockSize)
+                .putLong(Files.size(target)).putLong(Files.getLastModifiedTime(target).toMillis()).flip();
+        Files.createDirectories(signaturePath.getParent());
+        try (FileChannel channel = FileChannel.open(signaturePath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            ByteBuffer digests = ByteBuffer.wrap(signature);
+            while (digests.hasRemaining()) {
+                channel.write(digests, SIGNATURE_HEADER + digests.position());
+            }
+        }
+    }
+
+    //fill buffer from position with whole blocks, or up to the end of the file
+    private void read(FileChannel channel, ByteBuffer buffer, long position, long size) throws IOException {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), size - position));
+        readFully(channel, buffer, position);
+        buffer.flip();
+    }
+
+    //buffer is filled from its position 0, which is position in the file
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("File ended at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    private int blocks(long size) {
+        long blocks = (size + blockSize - 1) / blockSize;
+        if (blocks * DIGEST_LENGTH > Integer.MAX_VALUE - SIGNATURE_HEADER) {
+            throw new IllegalArgumentException("Too many blocks of " + blockSize + " bytes for " + size + " bytes");
+        }
+        return (int) blocks;
+    }
+
+    private int readSize() {
+        //whole blocks only, so a block never spans two reads
+        return Math.max(1, READ_SIZE / blockSize) * blockSize;
+    }
+
+    private static boolean equals(byte[] signature, int offset, byte[] digest) {
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            if (signature[offset + i] != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            //every Java platform has to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path from = Paths.get(args[0]);
+        Path to = Paths.get(args[1]);
+        int blockSize = (args.length > 2 ? Integer.parseInt(args[2]) : 64) * 1024;
+
+        long start = System.nanoTime();
+        long written = new DeltaFileCopier(blockSize).copy(from, to);
+        long elapsedTime = System.nanoTime() - start;
+        System.out.println("Wrote " + written + " of " + Files.size(from) + " bytes in " + (elapsedTime / 1000000000.0) + " seconds");
+    }
+}
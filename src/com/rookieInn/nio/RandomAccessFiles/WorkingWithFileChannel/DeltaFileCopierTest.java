@@ -0,0 +1,162 @@
+package com.rookieInn.nio.RandomAccessFiles.WorkingWithFileChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DeltaFileCopier writes only the blocks that differ, whether the source changed in place, grew or shrank.
+ */
+public class DeltaFileCopierTest {
+
+    private static final int BLOCK = 4096;
+
+    private Path dir;
+    private Path mirror;
+    private Path signatures;
+    private Path from;
+    private Path to;
+    private DeltaFileCopier copier;
+    private final Random random = new Random(11);
+
+    @Before
+    public void createDirectories() throws IOException {
+        dir = Files.createTempDirectory("delta-copier");
+        mirror = Files.createDirectory(dir.resolve("mirror"));
+        signatures = dir.resolve("signatures");
+        from = dir.resolve("source.bin");
+        to = mirror.resolve("source.bin");
+        copier = new DeltaFileCopier(BLOCK, signatures);
+    }
+
+    @After
+    public void deleteDirectories() throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException exc) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    //write the source with a modified time of its own, like an editor saving a file
+    private void writeSource(byte[] content) throws IOException {
+        Files.write(from, content);
+        Files.setLastModifiedTime(from, FileTime.fromMillis(Files.getLastModifiedTime(from).toMillis() + random.nextInt(100000) + 1000));
+    }
+
+    private long copy(byte[] content) throws IOException {
+        writeSource(content);
+        long written = copier.copy(from, to);
+        assertArrayEquals(content, Files.readAllBytes(to));
+        assertEquals(Files.getLastModifiedTime(from), Files.getLastModifiedTime(to));
+        return written;
+    }
+
+    @Test
+    public void firstCopyWritesEverythingThenNothing() throws IOException {
+        byte[] content = randomBytes(10 * BLOCK + 100);
+        assertEquals(content.length, copy(content));
+        assertEquals(0, copy(content));
+    }
+
+    @Test
+    public void changedBlockIsTheOnlyWrite() throws IOException {
+        byte[] content = randomBytes(10 * BLOCK + 100);
+        copy(content);
+
+        content[3 * BLOCK + 17] ^= 1;
+        content[3 * BLOCK + 4000] ^= 1;
+        assertEquals(BLOCK, copy(content));
+        content[content.length - 1] ^= 1;
+        assertEquals(100, copy(content));
+    }
+
+    @Test
+    public void grownFileWritesItsOldTailAndTheNewBlocks() throws IOException {
+        byte[] content = randomBytes(10 * BLOCK + 100);
+        copy(content);
+
+        byte[] grown = Arrays.copyOf(content, 12 * BLOCK + 5000);
+        System.arraycopy(randomBytes(grown.length - content.length), 0, grown, content.length, grown.length - content.length);
+        //block 10 held 100 bytes and is full now, everything from it on is new
+        assertEquals(grown.length - 10 * BLOCK, copy(grown));
+    }
+
+    @Test
+    public void shrunkFileIsTruncated() throws IOException {
+        byte[] content = randomBytes(10 * BLOCK + 100);
+        copy(content);
+
+        byte[] shrunk = Arrays.copyOf(content, 5 * BLOCK + 7);
+        //only the cut block differs, the ones after it are dropped by the truncate
+        assertEquals(7, copy(shrunk));
+        assertEquals(shrunk.length, Files.size(to));
+        assertEquals(0, copy(shrunk));
+    }
+
+    @Test
+    public void targetChangedBehindTheCopierIsReadAgain() throws IOException {
+        byte[] content = randomBytes(6 * BLOCK);
+        copy(content);
+
+        //same size, another time: the cached signature no longer describes the target
+        byte[] scribbled = content.clone();
+        scribbled[2 * BLOCK] ^= 1;
+        Files.write(to, scribbled);
+        Files.setLastModifiedTime(to, FileTime.fromMillis(12345000));
+        assertEquals(BLOCK, copier.copy(from, to));
+        assertArrayEquals(content, Files.readAllBytes(to));
+    }
+
+    @Test
+    public void signaturesStayOutOfTheMirror() throws IOException {
+        copy(randomBytes(3 * BLOCK));
+        assertEquals(Arrays.asList(to), list(mirror));
+
+        Path signature = copier.signaturePath(to);
+        assertEquals(Arrays.asList(signature), list(signatures));
+        copier.forget(to);
+        assertTrue(list(signatures).isEmpty());
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+}
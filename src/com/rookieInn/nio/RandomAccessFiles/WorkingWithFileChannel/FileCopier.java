@@ -0,0 +1,323 @@
+package com.rookieInn.nio.RandomAccessFiles.WorkingWithFileChannel;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributeView;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Copies files with whichever FileChannel technique suits them, instead of picking one by hand after
+ * BenchmarkingFileChannelCopyCapabilities.
+ *
+ *  TRANSFER  FileChannel.transferTo() in a loop, the kernel moves the bytes (sendfile/copy_file_range)
+ *  MAP       the source is mapped a window at a time and written out from the mapping
+ *  BUFFERED  read/write through a direct buffer, the only choice for network file systems, where mapping a
+ *            file that someone else truncates raises SIGBUS and transferTo falls back to this anyway
+ *
+ *  The choice depends on the file size and on the FileStore types of source and target: small files and
+ *  network file systems go BUFFERED, large files go to whichever method won the calibration for that pair
+ *  of store types. Calibration copies a generated 32 MB file with every method next to the
+ *  target, the results are kept in a properties file (-Dfilecopier.cache, default ~/.filecopier.properties)
+ *  so it happens once per machine and store pair. The store type of every directory is looked up once, and
+ *  only one thread calibrates at a time.
+ *
+ *  With REPLACE_EXISTING the file is copied to a temporary name in the target directory and renamed over
+ *  the target with ATOMIC_MOVE, so the target is never missing and never half written. COPY_ATTRIBUTES
+ *  copies the times, and the permissions (the owner and group too when allowed) or the DOS flags, depending
+ *  on the views both file stores support.
+ *
+ *  transferTo() and transferFrom() may move fewer bytes than asked for (on Linux at most 2 GB per call), so
+ *  every call is looped until the whole file is copied.
+ *
+ *  usage: FileCopier <from> <to> [--recalibrate]
+ */
+public class FileCopier {
+
+    public enum Method {
+        TRANSFER, MAP, BUFFERED
+    }
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final long MAP_WINDOW = 64 * 1024 * 1024;
+    private static final long SMALL_FILE = 64 * 1024;
+    private static final int CALIBRATION_SIZE = 32 * 1024 * 1024;
+    private static final Set<String> NETWORK_STORES = new HashSet<>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smbfs", "smb2", "fuse.sshfs", "9p", "afs", "webdav"));
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private final Path cacheFile;
+    //guarded by itself, calibrate and save under the lock so no two threads calibrate the same pair
+    private final Properties calibration = new Properties();
+    //directory -> FileStore type, a mount added below a cached directory later is not noticed
+    private final ConcurrentMap<Path, String> storeTypes = new ConcurrentHashMap<>();
+
+    public FileCopier() {
+        this(Paths.get(System.getProperty("filecopier.cache", System.getProperty("user.home") + File.separator + ".filecopier.properties")));
+    }
+
+    public FileCopier(Path cacheFile) {
+        this.cacheFile = cacheFile;
+        if (Files.isRegularFile(cacheFile)) {
+            try (InputStream in = Files.newInputStream(cacheFile)) {
+                calibration.load(in);
+            } catch (IOException e) {
+                //a broken cache only means calibrating again
+                System.err.println(e);
+            }
+        }
+    }
+
+    //copy from to to with the method choose() picks, return the method used
+    public Method copy(Path from, Path to, CopyOption... options) throws IOException {
+        boolean replace = false;
+        boolean attributes = false;
+        for (CopyOption option : options) {
+            if (option == StandardCopyOption.REPLACE_EXISTING) {
+                replace = true;
+            } else if (option == StandardCopyOption.COPY_ATTRIBUTES) {
+                attributes = true;
+            } else {
+                throw new UnsupportedOperationException("Unsupported copy option " + option);
+            }
+        }
+
+        BasicFileAttributes sourceAttributes = Files.readAttributes(from, BasicFileAttributes.class);
+        if (!sourceAttributes.isRegularFile()) {
+            throw new IOException(from + " is not a regular file");
+        }
+        Method method = choose(from, to, sourceAttributes.size());
+        if (!replace) {
+            //CREATE_NEW fails when to exists
+            copy(from, to, method);
+            if (attributes) {
+                copyAttributes(from, to, sourceAttributes);
+            }
+            return method;
+        }
+
+        Path temp = to.toAbsolutePath().resolveSibling("." + to.getFileName() + "." + System.nanoTime() + ".tmp");
+        try {
+            copy(from, temp, method);
+            if (attributes) {
+                copyAttributes(from, temp, sourceAttributes);
+            }
+            Files.move(temp, to, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return method;
+    }
+
+    //the times, and the permissions or the DOS flags when both sides have them
+    private static void copyAttributes(Path from, Path to, BasicFileAttributes sourceAttributes) throws IOException {
+        PosixFileAttributeView posix = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        DosFileAttributeView dos = Files.getFileAttributeView(to, DosFileAttributeView.class);
+        if (posix != null && Files.getFileAttributeView(from, PosixFileAttributeView.class) != null) {
+            PosixFileAttributes source = Files.readAttributes(from, PosixFileAttributes.class);
+            try {
+                posix.setOwner(source.owner());
+                posix.setGroup(source.group());
+            } catch (IOException e) {
+                //only root may give a file away, like cp -p keep the copier's owner then
+            }
+            posix.setPermissions(source.permissions());
+        } else if (dos != null && Files.getFileAttributeView(from, DosFileAttributeView.class) != null) {
+            DosFileAttributes source = Files.readAttributes(from, DosFileAttributes.class);
+            dos.setArchive(source.isArchive());
+            dos.setHidden(source.isHidden());
+            dos.setSystem(source.isSystem());
+            dos.setReadOnly(source.isReadOnly());
+        }
+        Files.getFileAttributeView(to, BasicFileAttributeView.class).setTimes(
+                sourceAttributes.lastModifiedTime(), sourceAttributes.lastAccessTime(), sourceAttributes.creationTime());
+    }
+
+    public Method choose(Path from, Path to, long size) throws IOException {
+        if (size < SMALL_FILE) {
+            return Method.BUFFERED;
+        }
+        Path targetDir = to.toAbsolutePath().getParent();
+        String sourceType = storeType(from.toAbsolutePath().getParent());
+        String targetType = storeType(targetDir);
+        if (NETWORK_STORES.contains(sourceType) || NETWORK_STORES.contains(targetType)) {
+            return Method.BUFFERED;
+        }
+
+        String key = sourceType + "->" + targetType;
+        String best = calibration.getProperty(key);
+        if (best == null) {
+            synchronized (calibration) {
+                //another thread may have calibrated the pair while this one waited
+                best = calibration.getProperty(key);
+                if (best == null) {
+                    best = calibrate(targetDir).name();
+                    calibration.setProperty(key, best);
+                    saveCalibration();
+                }
+            }
+        }
+        return Method.valueOf(best);
+    }
+
+    private String storeType(Path dir) throws IOException {
+        String type = storeTypes.get(dir);
+        if (type == null) {
+            type = Files.getFileStore(dir).type();
+            storeTypes.put(dir, type);
+        }
+        return type;
+    }
+
+    //forget the cached results, the next copy of a large file calibrates again
+    public void recalibrate() throws IOException {
+        synchronized (calibration) {
+            calibration.clear();
+            storeTypes.clear();
+            Files.deleteIfExists(cacheFile);
+        }
+    }
+
+    public static void copy(Path from, Path to, Method method) throws IOException {
+        try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(to, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            switch (method) {
+                case TRANSFER:
+                    transfer(in, out, 0, size);
+                    break;
+                case MAP:
+                    map(in, out, 0, size);
+                    break;
+                default:
+                    buffered(in, out, 0, size);
+            }
+        }
+    }
+
+    //transferTo() until every byte is moved, falls back to buffered when it stops making progress
+    static void transfer(FileChannel in, FileChannel out, long position, long count) throws IOException {
+        long end = position + count;
+        //transferTo writes at the current position of the target
+        out.position(position);
+        while (position < end) {
+            long transferred = in.transferTo(position, end - position, out);
+            if (transferred <= 0) {
+                //the source shrank under us, or the channel pair cannot transfer
+                if (position >= in.size()) {
+                    throw new EOFException("Source ended at " + position + " of " + end + " bytes");
+                }
+                buffered(in, out, position, end - position);
+                return;
+            }
+            position += transferred;
+        }
+    }
+
+    //map the source a window at a time, a single map() cannot exceed 2 GB and would pin the whole file
+    static void map(FileChannel in, FileChannel out, long position, long count) throws IOException {
+        long end = position + count;
+        out.position(position);
+        while (position < end) {
+            MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, end - position));
+            while (window.hasRemaining()) {
+                out.write(window);
+            }
+            position += window.capacity();
+        }
+    }
+
+    static void buffered(FileChannel in, FileChannel out, long position, long count) throws IOException {
+        ByteBuffer buffer = buffers.get();
+        long end = position + count;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = in.read(buffer, position);
+            if (read == -1) {
+                throw new EOFException("Source ended at " + position + " of " + end + " bytes");
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer, position);
+            }
+        }
+    }
+
+    //copy a generated file next to the target with every method, the fastest one wins
+    private Method calibrate(Path targetDir) throws IOException {
+        Path source = Files.createTempFile(targetDir, "calibrate", ".src");
+        Path target = targetDir.resolve(source.getFileName() + ".dst");
+        try {
+            byte[] chunk = new byte[BUFFER_SIZE];
+            new Random(7).nextBytes(chunk);
+            try (OutputStream out = Files.newOutputStream(source)) {
+                for (int written = 0; written < CALIBRATION_SIZE; written += chunk.length) {
+                    out.write(chunk);
+                }
+            }
+
+            Method best = Method.TRANSFER;
+            long bestTime = Long.MAX_VALUE;
+            for (Method method : new Method[]{Method.TRANSFER, Method.MAP, Method.BUFFERED}) {
+                long time = Long.MAX_VALUE;
+                //best of three, the first run also warms up the page cache and the JIT
+                for (int run = 0; run < 3; run++) {
+                    Files.deleteIfExists(target);
+                    long start = System.nanoTime();
+                    copy(source, target, method);
+                    time = Math.min(time, System.nanoTime() - start);
+                }
+                if (time < bestTime) {
+                    bestTime = time;
+                    best = method;
+                }
+            }
+            return best;
+        } finally {
+            Files.deleteIfExists(target);
+            Files.deleteIfExists(source);
+        }
+    }
+
+    //called with the calibration lock held
+    private void saveCalibration() {
+        try (OutputStream out = Files.newOutputStream(cacheFile)) {
+            calibration.store(out, "FileCopier calibration, source store type -> target store type = fastest method");
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        FileCopier copier = new FileCopier();
+        if (args.length > 2 && "--recalibrate".equals(args[2])) {
+            copier.recalibrate();
+        }
+
+        long start = System.nanoTime();
+        Method method = copier.copy(Paths.get(args[0]), Paths.get(args[1]), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        long elapsedTime = System.nanoTime() - start;
+        System.out.println("Copied with " + method + " in " + (elapsedTime / 1000000000.0) + " seconds");
+    }
+}
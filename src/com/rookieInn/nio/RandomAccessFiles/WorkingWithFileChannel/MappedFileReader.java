@@ -0,0 +1,292 @@
+package com.rookieInn.nio.RandomAccessFiles.WorkingWithFileChannel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file of any size through a memory-mapped window that slides along it, unlike
+ * MappingAChannelFileRegionDirectlyIntoMemory, which maps the whole file (at most 2 GB) and decodes it
+ * into one String.
+ *
+ *  Only one window of windowSize bytes is mapped at a time. A window always starts where the reader
+ *  stands, so a line or a multi-byte character cut by the end of a window is simply mapped again at the
+ *  start of the next one. Windows that are left behind are unmapped by the garbage collector, there is no
+ *  way to unmap them explicitly that would not break the slices next() handed out. So until a GC runs the
+ *  old windows still take address space and keep the file mapped (on Windows it cannot be deleted or
+ *  truncated meanwhile); a larger window means fewer of them for the same file.
+ *
+ *  next(max)      a read-only slice of the mapping, no bytes are copied
+ *  get()          one byte, -1 at the end of the file
+ *  read(chars)    decodes into the CharBuffer, multi-byte characters may span windows
+ *  readLine()     the next line without its \n or \r\n, null at the end of the file; only a line longer
+ *                 than a window is copied to the heap. A line longer than maxLineLength bytes (16 MB unless
+ *                 setMaxLineLength() says otherwise) is skipped and reported with an IOException, the next
+ *                 call returns the line after it
+ *
+ *  usage: MappedFileReader <file> [windowKB] [bytes | chars | lines]
+ */
+public class MappedFileReader implements Closeable {
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+    private final CharsetDecoder decoder;
+    private final CharsetDecoder lineDecoder;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position = 0;
+
+    private CharBuffer lineChars = CharBuffer.allocate(256);
+    private ByteBuffer longLine = ByteBuffer.allocate(0);
+    private int maxLineLength = 16 * 1024 * 1024;
+
+    public MappedFileReader(Path path, int windowSize, Charset charset) throws IOException {
+        //a window has to hold at least one character of any charset
+        if (windowSize < 16) {
+            throw new IllegalArgumentException("windowSize must be at least 16 bytes");
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        this.decoder = charset.newDecoder();
+        this.lineDecoder = charset.newDecoder();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public void position(long position) {
+        if (position < 0 || position > size) {
+            throw new IllegalArgumentException("position " + position + " outside of 0.." + size);
+        }
+        this.position = position;
+        decoder.reset();
+    }
+
+    public void setMaxLineLength(int maxLineLength) {
+        if (maxLineLength <= 0) {
+            throw new IllegalArgumentException("maxLineLength must be positive");
+        }
+        this.maxLineLength = maxLineLength;
+    }
+
+    public boolean hasRemaining() {
+        return position < size;
+    }
+
+    public int get() throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        int offset = ensureWindow();
+        position++;
+        return window.get(offset) & 0xff;
+    }
+
+    //up to max bytes from the current window, null at the end of the file
+    public ByteBuffer next(int max) throws IOException {
+        if (position >= size) {
+            return null;
+        }
+        int offset = ensureWindow();
+        int count = Math.min(max, window.capacity() - offset);
+        ByteBuffer slice = window.duplicate();
+        slice.position(offset);
+        slice.limit(offset + count);
+        position += count;
+        return slice.slice();
+    }
+
+    //decode into chars, return how many chars were added, -1 at the end of the file
+    public int read(CharBuffer chars) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        int start = chars.position();
+        while (chars.hasRemaining() && position < size) {
+            int offset = ensureWindow();
+            ByteBuffer in = window.duplicate();
+            in.position(offset);
+            boolean endOfInput = windowStart + window.capacity() == size;
+
+            CoderResult result = decoder.decode(in, chars, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            position = windowStart + in.position();
+            if (endOfInput && !in.hasRemaining()) {
+                decoder.flush(chars);
+            } else if (result.isUnderflow() && in.hasRemaining()) {
+                //a character cut by the end of the window, map a window starting with it
+                map(position);
+            }
+        }
+        return chars.position() - start;
+    }
+
+    public String readLine() throws IOException {
+        if (position >= size) {
+            return null;
+        }
+        long lineStart = position;
+        boolean tooLong = false;
+        longLine.clear();
+        while (true) {
+            int offset = ensureWindow();
+            int end = window.capacity();
+            for (int i = offset; i < end; i++) {
+                if (window.get(i) == '\n') {
+                    position = windowStart + i + 1;
+                    checkLineLength(lineStart, windowStart + i, tooLong);
+                    return decodeLine(offset, i);
+                }
+            }
+
+            if (windowStart + end == size) {
+                //the last line has no \n
+                position = size;
+                checkLineLength(lineStart, size, tooLong);
+                return decodeLine(offset, end);
+            }
+            if (offset > 0 && position == lineStart) {
+                //map again from the start of the line, it may fit in a whole window
+                map(position);
+                continue;
+            }
+
+            //the line is longer than a window, collect it on the heap up to maxLineLength
+            if (!tooLong && longLine.position() + end - offset > maxLineLength) {
+                tooLong = true;
+                longLine.clear();
+            }
+            if (!tooLong) {
+                ByteBuffer part = window.duplicate();
+                part.position(offset);
+                appendLongLine(part);
+            }
+            position = windowStart + end;
+        }
+    }
+
+    //position is already behind the line, so a line that is too long is skipped
+    private void checkLineLength(long lineStart, long lineEnd, boolean tooLong) throws IOException {
+        if (tooLong || lineEnd - lineStart > maxLineLength) {
+            longLine.clear();
+            throw new IOException("Line at " + lineStart + " has " + (lineEnd - lineStart) + " bytes, at most " + maxLineLength + " allowed");
+        }
+    }
+
+    private String decodeLine(int from, int to) throws CharacterCodingException {
+        ByteBuffer bytes = window.duplicate();
+        bytes.position(from);
+        bytes.limit(to);
+        if (longLine.position() > 0) {
+            appendLongLine(bytes);
+            bytes = longLine;
+            bytes.flip();
+        }
+        if (bytes.hasRemaining() && bytes.get(bytes.limit() - 1) == '\r') {
+            bytes.limit(bytes.limit() - 1);
+        }
+
+        int needed = (int) (bytes.remaining() * lineDecoder.maxCharsPerByte()) + 1;
+        if (lineChars.capacity() < needed) {
+            lineChars = CharBuffer.allocate(needed);
+        }
+        lineChars.clear();
+        lineDecoder.reset();
+        CoderResult result = lineDecoder.decode(bytes, lineChars, true);
+        if (result.isError()) {
+            result.throwException();
+        }
+        lineDecoder.flush(lineChars);
+        lineChars.flip();
+        return lineChars.toString();
+    }
+
+    private void appendLongLine(ByteBuffer part) {
+        if (longLine.remaining() < part.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(longLine.capacity() * 2, longLine.position() + part.remaining()));
+            longLine.flip();
+            grown.put(longLine);
+            longLine = grown;
+        }
+        longLine.put(part);
+    }
+
+    //make the window cover position, return the offset of position in it
+    private int ensureWindow() throws IOException {
+        if (window == null || position < windowStart || position >= windowStart + window.capacity()) {
+            map(position);
+        }
+        return (int) (position - windowStart);
+    }
+
+    private void map(long at) throws IOException {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, at, Math.min(windowSize, size - at));
+        windowStart = at;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path path = Paths.get(args[0]);
+        int windowSize = (args.length > 1 ? Integer.parseInt(args[1]) : 64 * 1024) * 1024;
+        String mode = args.length > 2 ? args[2] : "lines";
+
+        long start = System.nanoTime();
+        try (MappedFileReader reader = new MappedFileReader(path, windowSize, Charset.defaultCharset())) {
+            if ("bytes".equals(mode)) {
+                long sum = 0;
+                ByteBuffer slice;
+                while ((slice = reader.next(64 * 1024)) != null) {
+                    while (slice.hasRemaining()) {
+                        sum += slice.get() & 0xff;
+                    }
+                }
+                System.out.println(reader.size() + " bytes, sum " + sum);
+            } else if ("chars".equals(mode)) {
+                CharBuffer chars = CharBuffer.allocate(8192);
+                long count = 0;
+                int read;
+                while ((read = reader.read(chars)) != -1) {
+                    count += read;
+                    chars.clear();
+                }
+                System.out.println(count + " chars");
+            } else {
+                long lines = 0;
+                long longest = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    longest = Math.max(longest, line.length());
+                }
+                System.out.println(lines + " lines, the longest has " + longest + " chars");
+            }
+        }
+        long elapsedTime = System.nanoTime() - start;
+        System.out.println("Elapsed Time is " + (elapsedTime / 1000000000.0) + " seconds");
+    }
+}
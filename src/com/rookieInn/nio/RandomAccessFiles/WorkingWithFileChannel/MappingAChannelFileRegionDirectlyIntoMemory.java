@@ -29,6 +29,8 @@ import java.util.EnumSet;
  *      a. force(): Forces the changed over buffer to be propagated to the originating file
  *      b. load(): Loads the buffer content into physical memory
  *      c. isLoaded(): Verifies whether the buffer content is in physical memory
+ *
+ *  Mapping the whole file stops working past 2 GB, MappedFileReader slides a window over files of any size.
  * Created by gxy on 2016/6/23.
  */
 public class MappingAChannelFileRegionDirectlyIntoMemory {
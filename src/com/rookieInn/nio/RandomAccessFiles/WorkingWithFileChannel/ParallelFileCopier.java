@@ -0,0 +1,264 @@
+package com.rookieInn.nio.RandomAccessFiles.WorkingWithFileChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies one large file with several threads at once, to keep more requests in flight on an NVMe device
+ * than a single sequential copy does.
+ *
+ *  The target is sized up front, the source is cut into chunks of chunkSize bytes and every thread takes
+ *  the next chunk and copies it with FileCopier's transfer, map or buffered loop at the chunk's own position.
+ *  Every thread opens its own pair of channels, because transferTo() and the mapped write go through the
+ *  channel position.
+ *
+ *  Progress is kept in a journal next to the target (<target>.progress): a header with the source size,
+ *  modification time and chunk size, then one byte per chunk that is set once the chunk is on disk. An
+ *  interrupted copy started again with the same source and target skips the finished chunks. The journal
+ *  is deleted when the copy completes.
+ *
+ *  Forcing the target after every chunk would cost one device flush per chunk. Finished chunks are collected
+ *  instead, the thread that completes a batch of one chunk per thread forces the target once (a force covers
+ *  the writes of every channel of the file) and then marks the whole batch. A failed copy lets its threads
+ *  finish their current chunk and waits for them, then forces and marks what they finished before the
+ *  channels are closed.
+ *
+ *  usage: ParallelFileCopier <from> <to> [threads] [chunkMB] [transfer | map | buffered]
+ */
+public class ParallelFileCopier {
+
+    public interface Progress {
+        //called from the copying threads after every chunk
+        void onProgress(long bytesDone, long totalBytes);
+    }
+
+    private static final int JOURNAL_HEADER = 8 + 8 + 8;
+
+    private final int threads;
+    private final long chunkSize;
+    private final FileCopier.Method method;
+
+    public ParallelFileCopier(int threads, long chunkSize, FileCopier.Method method) {
+        if (threads <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("threads and chunkSize must be positive");
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.method = method;
+    }
+
+    public void copy(final Path from, final Path to, final Progress progress) throws IOException {
+        final long size = Files.size(from);
+        final long modified = Files.getLastModifiedTime(from).toMillis();
+        final int chunks = (int) ((size + chunkSize - 1) / chunkSize);
+        Path journalPath = to.resolveSibling(to.getFileName() + ".progress");
+
+        try (final FileChannel journal = openJournal(journalPath, to, size, modified, chunks);
+             FileChannel target = FileChannel.open(to, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            //size the target up front, so no thread has to extend the file
+            if (target.size() > size) {
+                target.truncate(size);
+            } else if (target.size() < size) {
+                target.write(ByteBuffer.wrap(new byte[1]), size - 1);
+            }
+
+            //what a previous run already copied
+            final boolean[] done = new boolean[chunks];
+            ByteBuffer marks = ByteBuffer.allocate(chunks);
+            while (marks.hasRemaining() && journal.read(marks, JOURNAL_HEADER + marks.position()) > 0) {
+            }
+            long resumed = 0;
+            for (int i = 0; i < marks.position(); i++) {
+                if (marks.get(i) == 1) {
+                    done[i] = true;
+                    resumed += Math.min(chunkSize, size - i * chunkSize);
+                }
+            }
+
+            final AtomicInteger nextChunk = new AtomicInteger();
+            final AtomicLong bytesDone = new AtomicLong(resumed);
+            //chunks written but not yet forced, guarded by itself
+            final List<Integer> unforced = new ArrayList<>();
+            //set on failure, the workers stop after their current chunk; an interrupt would close the shared journal
+            final AtomicBoolean stopped = new AtomicBoolean();
+            if (progress != null) {
+                progress.onProgress(resumed, size);
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> workers = new ArrayList<>();
+            try {
+                for (int t = 0; t < threads; t++) {
+                    workers.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+                                 FileChannel out = FileChannel.open(to, StandardOpenOption.WRITE)) {
+                                int chunk;
+                                while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                                    if (done[chunk]) {
+                                        continue;
+                                    }
+                                    if (stopped.get()) {
+                                        return null;
+                                    }
+                                    long position = chunk * chunkSize;
+                                    long count = Math.min(chunkSize, size - position);
+                                    copyChunk(in, out, position, count);
+
+                                    List<Integer> batch = null;
+                                    synchronized (unforced) {
+                                        unforced.add(chunk);
+                                        if (unforced.size() >= threads) {
+                                            batch = new ArrayList<>(unforced);
+                                            unforced.clear();
+                                        }
+                                    }
+                                    if (batch != null) {
+                                        markForced(out, journal, batch);
+                                    }
+
+                                    long total = bytesDone.addAndGet(count);
+                                    if (progress != null) {
+                                        progress.onProgress(total, size);
+                                    }
+                                }
+                            }
+                            return null;
+                        }
+                    }));
+                }
+
+                for (Future<?> worker : workers) {
+                    worker.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw keepProgress(new IOException("Copy of " + from + " interrupted, run it again to resume", e), stopped, executor, target, journal, unforced);
+            } catch (ExecutionException e) {
+                throw keepProgress(new IOException("Copy of " + from + " failed, run it again to resume", e.getCause()), stopped, executor, target, journal, unforced);
+            } finally {
+                executor.shutdown();
+            }
+            target.force(true);
+        }
+        Files.delete(journalPath);
+    }
+
+    //the chunks must be on disk before the journal says so
+    private static void markForced(FileChannel target, FileChannel journal, List<Integer> chunks) throws IOException {
+        target.force(false);
+        ByteBuffer mark = ByteBuffer.allocate(1);
+        for (int chunk : chunks) {
+            mark.clear();
+            mark.put(0, (byte) 1);
+            journal.write(mark, JOURNAL_HEADER + chunk);
+        }
+    }
+
+    //stop the workers, they write to the journal so it must stay open until they are gone, then mark what
+    //they finished so the next run does not copy it again
+    private static IOException keepProgress(IOException failure, AtomicBoolean stopped, ExecutorService executor,
+                                            FileChannel target, FileChannel journal, List<Integer> unforced) {
+        stopped.set(true);
+        executor.shutdown();
+        boolean interrupted = Thread.interrupted();
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        try {
+            synchronized (unforced) {
+                markForced(target, journal, unforced);
+                unforced.clear();
+            }
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return failure;
+    }
+
+    private void copyChunk(FileChannel in, FileChannel out, long position, long count) throws IOException {
+        switch (method) {
+            case TRANSFER:
+                FileCopier.transfer(in, out, position, count);
+                break;
+            case MAP:
+                FileCopier.map(in, out, position, count);
+                break;
+            default:
+                FileCopier.buffered(in, out, position, count);
+        }
+    }
+
+    //reuse the journal of an interrupted copy of the same source, otherwise start a new one
+    private FileChannel openJournal(Path journalPath, Path to, long size, long modified, int chunks) throws IOException {
+        FileChannel journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER);
+        while (header.hasRemaining() && journal.read(header, header.position()) > 0) {
+        }
+        header.flip();
+        boolean matches = Files.exists(to) && header.remaining() == JOURNAL_HEADER
+                && header.getLong() == size && header.getLong() == modified && header.getLong() == chunkSize;
+        if (!matches) {
+            journal.truncate(0);
+            header.clear();
+            header.putLong(size).putLong(modified).putLong(chunkSize).flip();
+            while (header.hasRemaining()) {
+                journal.write(header, header.position());
+            }
+            //one zero byte per chunk
+            if (chunks > 0) {
+                journal.write(ByteBuffer.wrap(new byte[1]), JOURNAL_HEADER + chunks - 1);
+            }
+            journal.force(true);
+        }
+        return journal;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path from = Paths.get(args[0]);
+        Path to = Paths.get(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        long chunkSize = (args.length > 3 ? Long.parseLong(args[3]) : 64) * 1024 * 1024;
+        FileCopier.Method method = args.length > 4 ? FileCopier.Method.valueOf(args[4].toUpperCase()) : FileCopier.Method.TRANSFER;
+
+        long start = System.nanoTime();
+        new ParallelFileCopier(threads, chunkSize, method).copy(from, to, new Progress() {
+            private int lastPercent = -1;
+
+            @Override
+            public synchronized void onProgress(long bytesDone, long totalBytes) {
+                int percent = totalBytes == 0 ? 100 : (int) (bytesDone * 100 / totalBytes);
+                if (percent / 10 != lastPercent / 10) {
+                    System.out.println(percent + "% (" + bytesDone + " of " + totalBytes + " bytes)");
+                }
+                lastPercent = percent;
+            }
+        });
+        long elapsedTime = System.nanoTime() - start;
+        System.out.println("Copied with " + threads + " threads in " + (elapsedTime / 1000000000.0) + " seconds");
+    }
+}
@@ -0,0 +1,130 @@
+package com.rookieInn.nio.RandomAccessFiles.WorkingWithFileChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A ParallelFileCopier copy that fails half way leaves a journal, and the next run only copies what is missing.
+ */
+public class ParallelFileCopierTest {
+
+    private static final int CHUNK = 64 * 1024;
+    //ten whole chunks and a short one
+    private static final int SIZE = 10 * CHUNK + 1234;
+
+    /**
+     * Keeps every progress report, and fails the copy after a number of chunks.
+     */
+    static class Recorder implements ParallelFileCopier.Progress {
+        final List<Long> reports = new ArrayList<>();
+        final int failAfter;
+        int chunks = 0;
+
+        Recorder(int failAfter) {
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public synchronized void onProgress(long bytesDone, long totalBytes) {
+            //the first report is the resumed state, before any chunk is copied
+            if (!reports.isEmpty() && ++chunks == failAfter) {
+                throw new IllegalStateException("disk pulled after " + chunks + " chunks");
+            }
+            reports.add(bytesDone);
+        }
+    }
+
+    private Path dir;
+    private Path from;
+    private Path to;
+    private Path journal;
+    private byte[] content;
+
+    @Before
+    public void createSource() throws IOException {
+        dir = Files.createTempDirectory("parallel-copier");
+        from = dir.resolve("source.bin");
+        to = dir.resolve("target.bin");
+        journal = dir.resolve("target.bin.progress");
+        content = new byte[SIZE];
+        new Random(3).nextBytes(content);
+        Files.write(from, content);
+    }
+
+    @After
+    public void deleteFiles() throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                Files.delete(entry);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private void copyAndFail(int threads, int failAfter) {
+        try {
+            new ParallelFileCopier(threads, CHUNK, FileCopier.Method.BUFFERED).copy(from, to, new Recorder(failAfter));
+            fail("the copy should have failed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("run it again to resume"));
+        }
+    }
+
+    @Test
+    public void resumesAfterAPartialJournal() throws IOException {
+        copyAndFail(1, 5);
+        assertTrue(Files.exists(journal));
+
+        Recorder resume = new Recorder(0);
+        new ParallelFileCopier(2, CHUNK, FileCopier.Method.TRANSFER).copy(from, to, resume);
+
+        //the four chunks reported before the failure were marked, the fifth was copied but not reported
+        long resumed = resume.reports.get(0);
+        assertTrue("resumed at " + resumed, resumed >= 4L * CHUNK && resumed <= 5L * CHUNK);
+        assertEquals(SIZE, (long) resume.reports.get(resume.reports.size() - 1));
+        //one report per chunk that was still missing
+        assertEquals(11 - resumed / CHUNK, resume.reports.size() - 1);
+        assertArrayEquals(content, Files.readAllBytes(to));
+        assertFalse(Files.exists(journal));
+    }
+
+    @Test
+    public void failedParallelCopyKeepsWhatItFinished() throws IOException {
+        copyAndFail(3, 4);
+        Recorder resume = new Recorder(0);
+        new ParallelFileCopier(3, CHUNK, FileCopier.Method.MAP).copy(from, to, resume);
+
+        //every chunk reported before the failure is in the journal, whatever batch it was in
+        assertTrue("resumed at " + resume.reports.get(0), resume.reports.get(0) >= 3L * CHUNK);
+        assertArrayEquals(content, Files.readAllBytes(to));
+        assertFalse(Files.exists(journal));
+    }
+
+    @Test
+    public void changedSourceStartsOver() throws IOException {
+        copyAndFail(1, 5);
+        Files.setLastModifiedTime(from, FileTime.fromMillis(Files.getLastModifiedTime(from).toMillis() - 60000));
+
+        Recorder again = new Recorder(0);
+        new ParallelFileCopier(2, CHUNK, FileCopier.Method.BUFFERED).copy(from, to, again);
+        assertEquals(0, (long) again.reports.get(0));
+        assertEquals(11, again.reports.size() - 1);
+        assertArrayEquals(content, Files.readAllBytes(to));
+    }
+}
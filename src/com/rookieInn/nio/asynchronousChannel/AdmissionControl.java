@@ -0,0 +1,58 @@
+package com.rookieInn.nio.asynchronousChannel;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the number of connections a server works on at the same time.
+ *
+ *  reject: a connection above the limit is accepted and closed right away, and counted as rejected.
+ *  queue:  the server stops accepting while the limit is reached, new connections wait in the
+ *          listen backlog of the kernel until a slot frees up.
+ */
+public class AdmissionControl {
+
+    private final int maxInFlight;
+    private final boolean reject;
+    private final Semaphore slots;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public AdmissionControl(int maxInFlight, boolean reject) {
+        this.maxInFlight = maxInFlight;
+        this.reject = reject;
+        this.slots = new Semaphore(maxInFlight);
+    }
+
+    public boolean rejects() {
+        return reject;
+    }
+
+    public boolean tryAcquire() {
+        return slots.tryAcquire();
+    }
+
+    //for acceptors running on their own thread, never call it on a channel group thread
+    public void acquire() throws InterruptedException {
+        slots.acquire();
+    }
+
+    public void release() {
+        slots.release();
+    }
+
+    public void rejected() {
+        rejected.incrementAndGet();
+    }
+
+    public int inFlight() {
+        return maxInFlight - slots.availablePermits();
+    }
+
+    public int maxInFlight() {
+        return maxInFlight;
+    }
+
+    public long rejectedCount() {
+        return rejected.get();
+    }
+}
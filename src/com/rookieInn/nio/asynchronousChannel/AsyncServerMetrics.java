@@ -0,0 +1,65 @@
+package com.rookieInn.nio.asynchronousChannel;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Exports the channel group and admission numbers of an async server over JMX,
+ * as com.rookieInn.nio:type=AsyncServer,name=<server name>, so jconsole or any JMX collector can read them.
+ * GroupQueueDepth and GroupActiveThreads are -1 when the group's executor cannot be inspected (virtual).
+ */
+public class AsyncServerMetrics implements AsyncServerMetricsMBean {
+
+    private final ChannelGroupFactory groups;
+    private final AdmissionControl admission;
+
+    public AsyncServerMetrics(ChannelGroupFactory groups, AdmissionControl admission) {
+        this.groups = groups;
+        this.admission = admission;
+    }
+
+    public void register(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("com.rookieInn.nio:type=AsyncServer,name=" + name));
+        } catch (JMException e) {
+            System.err.println("Cannot export metrics: " + e);
+        }
+    }
+
+    @Override
+    public String getChannelGroup() {
+        return groups.spec();
+    }
+
+    @Override
+    public int getGroupQueueDepth() {
+        return groups.queueDepth();
+    }
+
+    @Override
+    public int getGroupActiveThreads() {
+        return groups.activeThreads();
+    }
+
+    @Override
+    public int getInFlightConnections() {
+        return admission.inFlight();
+    }
+
+    @Override
+    public int getMaxInFlightConnections() {
+        return admission.maxInFlight();
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return admission.rejectedCount();
+    }
+
+    @Override
+    public String toString() {
+        return "group=" + getChannelGroup() + " queueDepth=" + getGroupQueueDepth() + " activeThreads=" + getGroupActiveThreads()
+                + " inFlight=" + getInFlightConnections() + "/" + getMaxInFlightConnections() + " rejected=" + getRejectedConnections();
+    }
+}
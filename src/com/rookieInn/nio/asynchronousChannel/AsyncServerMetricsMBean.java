@@ -0,0 +1,19 @@
+package com.rookieInn.nio.asynchronousChannel;
+
+/**
+ * JMX view of an async server, see AsyncServerMetrics.
+ */
+public interface AsyncServerMetricsMBean {
+
+    String getChannelGroup();
+
+    int getGroupQueueDepth();
+
+    int getGroupActiveThreads();
+
+    int getInFlightConnections();
+
+    int getMaxInFlightConnections();
+
+    long getRejectedConnections();
+}
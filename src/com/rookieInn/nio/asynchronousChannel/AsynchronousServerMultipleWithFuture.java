@@ -13,6 +13,12 @@ import java.util.concurrent.*;
 /**
  * accept multiple clients
  *
+ *  Every client is served by a worker of a bounded pool, at most async.maxConnections at a time.
+ *  Above that limit a client is either closed right away (reject) or the accept loop waits for a free
+ *  worker, leaving new clients in the listen backlog (queue). The server channel is bound to the group
+ *  given by async.group (see ChannelGroupFactory), the numbers are exported over JMX by AsyncServerMetrics.
+ *      -Dasync.group=default | fixed:N | cached:N | virtual
+ *      -Dasync.maxConnections=1000 -Dasync.admission=reject | queue
  *
  * Created by gxy on 2016/6/30.
  */
@@ -21,10 +27,25 @@ public class AsynchronousServerMultipleWithFuture {
     public static void main(String[] args) {
         final int port = 5555;
         final String ip = "127.0.0.1";
-        ExecutorService executor = Executors.newCachedThreadPool(Executors.defaultThreadFactory());
+        final int maxConnections = Integer.getInteger("async.maxConnections", 1000);
+        final AdmissionControl admission = new AdmissionControl(maxConnections, !"queue".equals(System.getProperty("async.admission")));
 
-        //create asynchronous server socket channel bound to the default group
-        try(AsynchronousServerSocketChannel asynchronousServerSocketChannel = AsynchronousServerSocketChannel.open()) {
+        //one worker per admitted client, threads are started on demand and the admission control alone
+        //keeps them at maxConnections, a few processors' worth stay around while the server is idle
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(Runtime.getRuntime().availableProcessors(), Integer.MAX_VALUE,
+                60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), Executors.defaultThreadFactory());
+
+        ChannelGroupFactory groups;
+        try {
+            groups = ChannelGroupFactory.open(System.getProperty("async.group", "default"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        new AsyncServerMetrics(groups, admission).register("AsynchronousServerMultipleWithFuture");
+
+        //create asynchronous server socket channel bound to the configured group
+        try(AsynchronousServerSocketChannel asynchronousServerSocketChannel = AsynchronousServerSocketChannel.open(groups.group())) {
             if (asynchronousServerSocketChannel.isOpen()) {
                 //set some options
                 asynchronousServerSocketChannel.setOption(StandardSocketOptions.SO_RCVBUF, 128 * 1024);
@@ -36,32 +57,45 @@ public class AsynchronousServerMultipleWithFuture {
                 System.out.println("Waiting for connections ...");
 
                 while (true) {
-                    Future<AsynchronousSocketChannel> future = asynchronousServerSocketChannel.accept();
                     try{
+                        //in queue mode wait for a free worker before accepting
+                        if (!admission.rejects()) {
+                            admission.acquire();
+                        }
+                        Future<AsynchronousSocketChannel> future = asynchronousServerSocketChannel.accept();
                         AsynchronousSocketChannel asynchronousSocketChannel = future.get();
+                        if (admission.rejects() && !admission.tryAcquire()) {
+                            admission.rejected();
+                            asynchronousSocketChannel.close();
+                            continue;
+                        }
                         Callable<String> worker = new Callable<String>() {
                             @Override
                             public String call() throws Exception {
-                                String host = asynchronousSocketChannel.getRemoteAddress().toString();
-                                System.out.println("Incoming connection from: " + host);
-                                final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+                                try {
+                                    String host = asynchronousSocketChannel.getRemoteAddress().toString();
+                                    System.out.println("Incoming connection from: " + host);
+                                    final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
 
-                                //transmitting data
-                                while (asynchronousSocketChannel.read(buffer).get() != -1){
-                                    buffer.flip();
+                                    //transmitting data
+                                    while (asynchronousSocketChannel.read(buffer).get() != -1){
+                                        buffer.flip();
 
-                                    asynchronousSocketChannel.write(buffer).get();
+                                        asynchronousSocketChannel.write(buffer).get();
 
-                                    if (buffer.hasRemaining()) {
-                                        buffer.compact();
-                                    } else {
-                                        buffer.clear();
+                                        if (buffer.hasRemaining()) {
+                                            buffer.compact();
+                                        } else {
+                                            buffer.clear();
+                                        }
                                     }
-                                }
 
-                                asynchronousServerSocketChannel.close();
-                                System.out.println(host + " was successfully served!");
-                                return host;
+                                    System.out.println(host + " was successfully served!");
+                                    return host;
+                                } finally {
+                                    asynchronousSocketChannel.close();
+                                    admission.release();
+                                }
                             }
                         };
                         executor.submit(worker);
@@ -82,6 +116,8 @@ public class AsynchronousServerMultipleWithFuture {
             }
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            groups.shutdown();
         }
     }
 
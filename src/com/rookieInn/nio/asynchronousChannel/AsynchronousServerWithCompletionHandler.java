@@ -8,19 +8,188 @@ import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * Echo server driven by completion handlers.
+ *
+ *  Every connection is a small state machine: read completes -> write the buffer back -> write completes
+ *  (again while the buffer has remaining bytes) -> read again. Each step only issues the next operation
+ *  and returns, so the threads of the channel group never block. Every connection has its own
+ *  buffer, borrowed from a DirectBufferPool and given back when the connection closes.
+ *
+ *  "AsynchronousServerWithCompletionHandler blocking" runs the previous handler, which waits on
+ *  read(...).get() and write(...).get() inside the accept handler, so both variants can be measured
+ *  with socketApi.EchoBenchmark 5555. Both variants go through the same admission control.
+ *
+ *  The channel group and the admission limit are picked with system properties (see ChannelGroupFactory
+ *  and AdmissionControl), the numbers are exported over JMX by AsyncServerMetrics:
+ *      -Dasync.group=default | fixed:N | cached:N | virtual
+ *      -Dasync.maxConnections=10000 -Dasync.admission=reject | queue
+ *
  * Created by gxy on 2016/6/30.
  */
 public class AsynchronousServerWithCompletionHandler {
 
+    private static final DirectBufferPool bufferPool = new DirectBufferPool(1024, 4096);
+    private static final AtomicBoolean acceptPaused = new AtomicBoolean();
+
+    private static AsynchronousServerSocketChannel asynchronousServerSocketChannel;
+    private static AdmissionControl admission;
+
+    /**
+     * One connection and its buffer, the attachment of every read and write.
+     */
+    static class Session {
+        final AsynchronousSocketChannel channel;
+        final ByteBuffer buffer;
+
+        Session(AsynchronousSocketChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                bufferPool.release(buffer);
+                admission.release();
+                resumeAccept();
+            }
+        }
+    }
+
+    //a new connection was accepted
+    private static final CompletionHandler<AsynchronousSocketChannel, Void> ACCEPT_HANDLER = new CompletionHandler<AsynchronousSocketChannel, Void>() {
+        @Override
+        public void completed(AsynchronousSocketChannel result, Void attachment) {
+            if (!admit(result)) {
+                return;
+            }
+
+            //start the read -> write -> read chain of this connection
+            Session session = new Session(result, bufferPool.acquire());
+            result.read(session.buffer, session, READ_HANDLER);
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            acceptFailed(exc);
+        }
+    };
+
+    //the handler acceptNext() issues, ACCEPT_HANDLER or the blocking one
+    private static CompletionHandler<AsynchronousSocketChannel, Void> acceptHandler;
+
+    //issue the accept() for the next connection and take a slot for result, false when result was turned away
+    private static boolean admit(AsynchronousSocketChannel result) {
+        if (admission.rejects()) {
+            asynchronousServerSocketChannel.accept(null, acceptHandler);
+            if (!admission.tryAcquire()) {
+                admission.rejected();
+                try {
+                    result.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                return false;
+            }
+        } else {
+            //the slot of this connection was taken before accept() was issued
+            acceptNext();
+        }
+        return true;
+    }
+
+    //a failed accept() gives its slot back and is issued again, unless the server channel was closed
+    private static void acceptFailed(Throwable exc) {
+        if (!admission.rejects()) {
+            admission.release();
+        }
+        if (!asynchronousServerSocketChannel.isOpen()) {
+            return;
+        }
+        System.err.println("Cannot accept a connection: " + exc);
+        acceptNext();
+    }
+
+    //issue the next accept(), in queue mode only once a slot is free
+    private static void acceptNext() {
+        if (admission.rejects() || admission.tryAcquire()) {
+            asynchronousServerSocketChannel.accept(null, acceptHandler);
+            return;
+        }
+
+        //leave new connections in the backlog until Session.close() resumes accepting
+        acceptPaused.set(true);
+        if (admission.tryAcquire()) {
+            //a connection closed in between
+            if (acceptPaused.compareAndSet(true, false)) {
+                asynchronousServerSocketChannel.accept(null, acceptHandler);
+            } else {
+                admission.release();
+            }
+        }
+    }
+
+    private static void resumeAccept() {
+        if (acceptPaused.compareAndSet(true, false)) {
+            acceptNext();
+        }
+    }
+
+    //read completed, echo what was read
+    private static final CompletionHandler<Integer, Session> READ_HANDLER = new CompletionHandler<Integer, Session>() {
+        @Override
+        public void completed(Integer result, Session session) {
+            if (result == -1) {
+                session.close();
+                return;
+            }
+            session.buffer.flip();
+            session.channel.write(session.buffer, session, WRITE_HANDLER);
+        }
+
+        @Override
+        public void failed(Throwable exc, Session session) {
+            session.close();
+        }
+    };
+
+    //write completed, finish a short write or go back to reading
+    private static final CompletionHandler<Integer, Session> WRITE_HANDLER = new CompletionHandler<Integer, Session>() {
+        @Override
+        public void completed(Integer result, Session session) {
+            if (session.buffer.hasRemaining()) {
+                session.channel.write(session.buffer, session, this);
+                return;
+            }
+            session.buffer.clear();
+            session.channel.read(session.buffer, session, READ_HANDLER);
+        }
+
+        @Override
+        public void failed(Throwable exc, Session session) {
+            session.close();
+        }
+    };
+
     public static void main(String[] args) {
         final int port = 5555;
         final String ip = "127.0.0.1";
+        final boolean blocking = args.length > 0 && "blocking".equals(args[0]);
 
-        //create an asynchronous server socket channel bound to the default group
+        //create an asynchronous server socket channel bound to the configured group
         try {
-            AsynchronousServerSocketChannel asynchronousServerSocketChannel = AsynchronousServerSocketChannel.open();
+            ChannelGroupFactory groups = ChannelGroupFactory.open(System.getProperty("async.group", "default"));
+            admission = new AdmissionControl(Integer.getInteger("async.maxConnections", 10000), !"queue".equals(System.getProperty("async.admission")));
+            AsyncServerMetrics metrics = new AsyncServerMetrics(groups, admission);
+            metrics.register("AsynchronousServerWithCompletionHandler");
+
+            asynchronousServerSocketChannel = AsynchronousServerSocketChannel.open(groups.group());
             if (asynchronousServerSocketChannel.isOpen()) {
                 //set some options
                 asynchronousServerSocketChannel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024);
@@ -31,50 +200,14 @@ public class AsynchronousServerWithCompletionHandler {
                 //display a waiting message while ... waiting clients
                 System.out.println("Waiting for connections ...");
 
-                asynchronousServerSocketChannel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
-                   final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
-
-                    @Override
-                    public void completed(AsynchronousSocketChannel result, Void attachment) {
-                        asynchronousServerSocketChannel.accept(null, this);
-
-                        try {
-                            System.out.println("Incoming connection from: " + result.getRemoteAddress());
-
-                            //transmitting data
-                            while (result.read(buffer).get() != -1) {
-                                buffer.flip();
-                                result.write(buffer).get();
-
-                                if (buffer.hasRemaining()) {
-                                    buffer.compact();
-                                } else {
-                                    buffer.clear();
-                                }
-                            }
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        } catch (InterruptedException | ExecutionException e) {
-                            e.printStackTrace();
-                        } finally {
-                            try {
-                                result.close();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
-
-                    @Override
-                    public void failed(Throwable exc, Void attachment) {
-                        asynchronousServerSocketChannel.accept(null, this);
-
-                        throw new UnsupportedOperationException("Cannot accept connections!");
-                    }
-                });
+                acceptHandler = blocking ? BLOCKING_ACCEPT_HANDLER : ACCEPT_HANDLER;
+                acceptNext();
 
                 //wait
                 System.in.read();
+                System.out.println(metrics);
+                asynchronousServerSocketChannel.close();
+                groups.shutdown();
 
             } else {
 
@@ -85,7 +218,49 @@ public class AsynchronousServerWithCompletionHandler {
 
     }
 
+    //the original handler, it blocks a group thread for the whole life of every connection
+    private static final CompletionHandler<AsynchronousSocketChannel, Void> BLOCKING_ACCEPT_HANDLER = new CompletionHandler<AsynchronousSocketChannel, Void>() {
+        @Override
+        public void completed(AsynchronousSocketChannel result, Void attachment) {
+            if (!admit(result)) {
+                return;
+            }
+            final ByteBuffer buffer = bufferPool.acquire();
+
+            try {
+                System.out.println("Incoming connection from: " + result.getRemoteAddress());
 
+                //transmitting data
+                while (result.read(buffer).get() != -1) {
+                    buffer.flip();
+                    result.write(buffer).get();
 
+                    if (buffer.hasRemaining()) {
+                        buffer.compact();
+                    } else {
+                        buffer.clear();
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            } finally {
+                try {
+                    result.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                bufferPool.release(buffer);
+                admission.release();
+                resumeAccept();
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            acceptFailed(exc);
+        }
+    };
 
 }
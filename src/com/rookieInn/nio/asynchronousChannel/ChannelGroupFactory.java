@@ -0,0 +1,110 @@
+package com.rookieInn.nio.asynchronousChannel;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the AsynchronousChannelGroup the async servers are bound to, from a short spec:
+ *
+ *  default     a group built like the JVM wide default one: cached daemon threads, as many of them
+ *              started up front as there are processors
+ *  fixed:N     N threads, completion handlers wait in an unbounded queue when all of them are busy
+ *  cached:N    threads created on demand, N of them are started up front to handle I/O events
+ *  virtual     a virtual thread per task (Java 21+), a cached platform pool on older runtimes
+ *
+ *  The default, fixed and cached groups are built on a ThreadPoolExecutor the factory keeps a reference
+ *  to, so queueDepth() and activeThreads() can be exported as metrics. The JVM wide group itself is never
+ *  used, its executor cannot be reached. Both return -1 for virtual, whose executor exposes no counters
+ *  (every task has its own thread there, so nothing ever waits), and for a custom executor that is not a
+ *  ThreadPoolExecutor.
+ */
+public class ChannelGroupFactory {
+
+    //like the threads of the JVM wide group, they do not keep the JVM alive
+    private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final String spec;
+    private final AsynchronousChannelGroup group;
+    private final ThreadPoolExecutor executor;
+
+    private ChannelGroupFactory(String spec, AsynchronousChannelGroup group, ThreadPoolExecutor executor) {
+        this.spec = spec;
+        this.group = group;
+        this.executor = executor;
+    }
+
+    public static ChannelGroupFactory open(String spec) throws IOException {
+        if (spec.equals("default")) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), DAEMON_THREADS);
+            return new ChannelGroupFactory(spec, AsynchronousChannelGroup.withCachedThreadPool(executor, Runtime.getRuntime().availableProcessors()), executor);
+        }
+        if (spec.startsWith("fixed:")) {
+            int threads = Integer.parseInt(spec.substring("fixed:".length()));
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+            return new ChannelGroupFactory(spec, AsynchronousChannelGroup.withThreadPool(executor), executor);
+        }
+        if (spec.startsWith("cached:")) {
+            int initialSize = Integer.parseInt(spec.substring("cached:".length()));
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+            return new ChannelGroupFactory(spec, AsynchronousChannelGroup.withCachedThreadPool(executor, initialSize), executor);
+        }
+        if (spec.equals("virtual")) {
+            return new ChannelGroupFactory(spec, AsynchronousChannelGroup.withThreadPool(newVirtualThreadExecutor()), null);
+        }
+        throw new IllegalArgumentException("Unknown channel group: " + spec);
+    }
+
+    //a group on a caller supplied executor, the executor must not be used for anything else
+    public static ChannelGroupFactory open(ExecutorService executor) throws IOException {
+        ThreadPoolExecutor known = executor instanceof ThreadPoolExecutor ? (ThreadPoolExecutor) executor : null;
+        return new ChannelGroupFactory("custom", AsynchronousChannelGroup.withThreadPool(executor), known);
+    }
+
+    public AsynchronousChannelGroup group() {
+        return group;
+    }
+
+    public String spec() {
+        return spec;
+    }
+
+    //tasks waiting for a group thread, -1 when unknown
+    public int queueDepth() {
+        return executor == null ? -1 : executor.getQueue().size();
+    }
+
+    //group threads running a task, -1 when unknown
+    public int activeThreads() {
+        return executor == null ? -1 : executor.getActiveCount();
+    }
+
+    public void shutdown() {
+        group.shutdown();
+    }
+
+    //Executors.newVirtualThreadPerTaskExecutor() is looked up so the class still builds on older JDKs
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not available, using a cached thread pool");
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -13,6 +13,9 @@ import java.util.concurrent.Future;
  * Asynchronous File Channel Example
  * File Read and Future
  *
+ * One read at a time, waited for by spinning on isDone(). ReadAheadFileReader keeps several reads in flight
+ * with completion handlers to scan a whole file.
+ *
  * Created by gxy on 2016/6/30.
  */
 public class FileReadAndFuture {
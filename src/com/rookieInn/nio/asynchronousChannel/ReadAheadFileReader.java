@@ -0,0 +1,286 @@
+package com.rookieInn.nio.asynchronousChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Sequential scan of a file with `depth` reads always in flight, delivered in file order.
+ *
+ *  FileReadAndFuture waits on one read at a time, so the disk idles while the data is processed. Here the
+ *  file is cut into chunks of bufferSize bytes and the first `depth` chunks are read at once with
+ *  read(buffer, position, attachment, handler). Chunks complete in any order on the threads of the channel
+ *  group, but the consumer sees them strictly in sequence: whichever thread completes the chunk the
+ *  consumer is waiting for delivers it, and every chunk that completed ahead of it. A delivered buffer is
+ *  reused right away for the chunk `depth` positions further on, so exactly `depth` buffers (borrowed
+ *  from a DirectBufferPool) are in use whatever the file size.
+ *
+ *  A short read is continued where it stopped, the consumer always gets whole chunks (only the last one
+ *  may be shorter). Only one thread calls the consumer at a time.
+ *
+ *  The first failure ends the scan, whether a read completes with an error, cannot even be issued (a shut
+ *  down group, a channel not open for reading) or the consumer throws. The buffers go back to the pool
+ *  once no read is in flight and no thread is delivering any more.
+ *
+ *  usage: ReadAheadFileReader <file> [bufferKB] [depth]
+ */
+public class ReadAheadFileReader {
+
+    public interface Consumer {
+        //data is only valid during the call, it goes back to the pipeline afterwards
+        void onData(long position, ByteBuffer data);
+
+        void onComplete(long bytes);
+
+        void onError(Throwable exc);
+    }
+
+    /**
+     * One buffer and the chunk it is reading at the moment.
+     */
+    static class Chunk {
+        final ByteBuffer buffer;
+        long index;
+        long position;
+        boolean complete;
+
+        Chunk(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private final AsynchronousFileChannel channel;
+    private final int bufferSize;
+    private final Consumer consumer;
+    private final DirectBufferPool pool;
+    private final Chunk[] ring;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private long size;
+    private long chunks;
+    private long nextDelivery = 0;
+    private boolean delivering = false;
+    private boolean failed = false;
+    private int inFlight = 0;
+
+    private final CompletionHandler<Integer, Chunk> handler = new CompletionHandler<Integer, Chunk>() {
+        @Override
+        public void completed(Integer result, Chunk chunk) {
+            synchronized (ring) {
+                inFlight--;
+                if (failed) {
+                    releaseIfIdle();
+                    return;
+                }
+            }
+            if (result != -1 && chunk.buffer.hasRemaining()) {
+                //short read, continue the same chunk
+                issue(chunk);
+                return;
+            }
+            synchronized (ring) {
+                chunk.complete = true;
+                if (delivering) {
+                    //the delivering thread will pick this chunk up
+                    return;
+                }
+                delivering = true;
+            }
+            deliver();
+        }
+
+        @Override
+        public void failed(Throwable exc, Chunk chunk) {
+            synchronized (ring) {
+                inFlight--;
+                releaseIfIdle();
+            }
+            fail(exc);
+        }
+    };
+
+    public ReadAheadFileReader(AsynchronousFileChannel channel, int bufferSize, int depth, Consumer consumer) {
+        this(channel, bufferSize, depth, consumer, new DirectBufferPool(bufferSize, depth));
+    }
+
+    public ReadAheadFileReader(AsynchronousFileChannel channel, int bufferSize, int depth, Consumer consumer, DirectBufferPool pool) {
+        if (bufferSize <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("bufferSize and depth must be positive");
+        }
+        this.channel = channel;
+        this.bufferSize = bufferSize;
+        this.consumer = consumer;
+        this.pool = pool;
+        this.ring = new Chunk[depth];
+    }
+
+    //issue the first reads and return, the consumer is called from the channel group
+    public void start() throws IOException {
+        size = channel.size();
+        chunks = (size + bufferSize - 1) / bufferSize;
+        if (chunks == 0) {
+            consumer.onComplete(0);
+            done.countDown();
+            return;
+        }
+        for (int i = 0; i < ring.length && i < chunks; i++) {
+            ring[i] = new Chunk(pool.acquire());
+        }
+        for (int i = 0; i < ring.length && i < chunks; i++) {
+            read(ring[i], i);
+        }
+    }
+
+    public void await() throws InterruptedException {
+        done.await();
+    }
+
+    private void read(Chunk chunk, long index) {
+        synchronized (ring) {
+            if (failed) {
+                //the buffer may be back in the pool already
+                return;
+            }
+            chunk.index = index;
+            chunk.position = index * bufferSize;
+            chunk.complete = false;
+            chunk.buffer.clear();
+            chunk.buffer.limit((int) Math.min(bufferSize, size - chunk.position));
+        }
+        issue(chunk);
+    }
+
+    //read the rest of chunk's buffer, a read that throws instead of calling the handler fails the scan
+    private void issue(Chunk chunk) {
+        synchronized (ring) {
+            if (failed) {
+                return;
+            }
+            inFlight++;
+        }
+        try {
+            channel.read(chunk.buffer, chunk.position + chunk.buffer.position(), chunk, handler);
+        } catch (RuntimeException e) {
+            synchronized (ring) {
+                inFlight--;
+                releaseIfIdle();
+            }
+            fail(e);
+        }
+    }
+
+    //hand every completed chunk at the head of the sequence to the consumer, on one thread at a time
+    private void deliver() {
+        while (true) {
+            Chunk chunk;
+            synchronized (ring) {
+                chunk = ring[(int) (nextDelivery % ring.length)];
+                if (failed || chunk == null || chunk.index != nextDelivery || !chunk.complete) {
+                    delivering = false;
+                    releaseIfIdle();
+                    return;
+                }
+            }
+
+            chunk.buffer.flip();
+            try {
+                consumer.onData(chunk.position, chunk.buffer);
+            } catch (RuntimeException e) {
+                fail(e);
+                synchronized (ring) {
+                    delivering = false;
+                    releaseIfIdle();
+                }
+                return;
+            }
+
+            long next = nextDelivery + ring.length;
+            nextDelivery++;
+            if (next < chunks) {
+                read(chunk, next);
+            } else {
+                synchronized (ring) {
+                    ring[(int) ((nextDelivery - 1) % ring.length)] = null;
+                }
+                pool.release(chunk.buffer);
+            }
+            if (nextDelivery == chunks) {
+                consumer.onComplete(size);
+                done.countDown();
+                return;
+            }
+        }
+    }
+
+    private void fail(Throwable exc) {
+        synchronized (ring) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+            releaseIfIdle();
+        }
+        consumer.onError(exc);
+        done.countDown();
+    }
+
+    //after a failure, once nothing reads into or delivers from the ring, its buffers go back to the pool
+    private void releaseIfIdle() {
+        if (!failed || inFlight > 0 || delivering) {
+            return;
+        }
+        for (int i = 0; i < ring.length; i++) {
+            if (ring[i] != null) {
+                pool.release(ring[i].buffer);
+                ring[i] = null;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path path = Paths.get(args[0]);
+        int bufferSize = (args.length > 1 ? Integer.parseInt(args[1]) : 256) * 1024;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ)) {
+            final long[] checksum = new long[1];
+            final long start = System.nanoTime();
+            ReadAheadFileReader reader = new ReadAheadFileReader(channel, bufferSize, depth, new Consumer() {
+                private long expected = 0;
+
+                @Override
+                public void onData(long position, ByteBuffer data) {
+                    if (position != expected) {
+                        throw new IllegalStateException("Got position " + position + ", expected " + expected);
+                    }
+                    expected += data.remaining();
+                    while (data.remaining() >= 8) {
+                        checksum[0] = checksum[0] * 31 + data.getLong();
+                    }
+                    while (data.hasRemaining()) {
+                        checksum[0] = checksum[0] * 31 + data.get();
+                    }
+                }
+
+                @Override
+                public void onComplete(long bytes) {
+                    double seconds = (System.nanoTime() - start) / 1000000000.0;
+                    System.out.println("Read " + bytes + " bytes in " + seconds + " seconds, "
+                            + String.format("%.1f", bytes / seconds / (1024 * 1024)) + " MB/s, checksum " + checksum[0]);
+                }
+
+                @Override
+                public void onError(Throwable exc) {
+                    System.out.println("Error: " + exc);
+                }
+            });
+            reader.start();
+            reader.await();
+        }
+    }
+}
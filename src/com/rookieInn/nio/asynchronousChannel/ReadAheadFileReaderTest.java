@@ -0,0 +1,188 @@
+package com.rookieInn.nio.asynchronousChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ReadAheadFileReader delivers a file in order, ends on the first failure instead of hanging and always
+ * gives its buffers back to the pool.
+ */
+public class ReadAheadFileReaderTest {
+
+    private static final int BUFFER = 4096;
+    private static final int DEPTH = 4;
+
+    /**
+     * Counts the buffers that are out of the pool.
+     */
+    static class CountingPool extends DirectBufferPool {
+        final AtomicInteger borrowed = new AtomicInteger();
+
+        CountingPool() {
+            super(BUFFER, DEPTH);
+        }
+
+        @Override
+        public ByteBuffer acquire() {
+            borrowed.incrementAndGet();
+            return super.acquire();
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+            borrowed.decrementAndGet();
+            super.release(buffer);
+        }
+    }
+
+    /**
+     * Keeps the data and the outcome, and throws from onData once it got failAfter chunks.
+     */
+    static class Recorder implements ReadAheadFileReader.Consumer {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final CountDownLatch finished = new CountDownLatch(1);
+        final int failAfter;
+        int chunks = 0;
+        long completed = -1;
+        Throwable error;
+
+        Recorder(int failAfter) {
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void onData(long position, ByteBuffer buffer) {
+            if (++chunks == failAfter) {
+                throw new IllegalStateException("consumer gave up");
+            }
+            assertEquals(data.size(), position);
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            data.write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void onComplete(long bytes) {
+            completed = bytes;
+            finished.countDown();
+        }
+
+        @Override
+        public void onError(Throwable exc) {
+            error = exc;
+            finished.countDown();
+        }
+
+        void awaitFinished() throws InterruptedException {
+            assertTrue("the scan never finished", finished.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private Path file;
+    private byte[] content;
+    private final CountingPool pool = new CountingPool();
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("read-ahead", ".bin");
+        content = new byte[25 * BUFFER + 123];
+        new Random(5).nextBytes(content);
+        Files.write(file, content);
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.delete(file);
+    }
+
+    @Test
+    public void readsInOrderAndReturnsEveryBuffer() throws IOException, InterruptedException {
+        Recorder recorder = new Recorder(0);
+        try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(file, StandardOpenOption.READ)) {
+            ReadAheadFileReader reader = new ReadAheadFileReader(channel, BUFFER, DEPTH, recorder, pool);
+            reader.start();
+            reader.await();
+        }
+        assertNull(recorder.error);
+        assertEquals(content.length, recorder.completed);
+        assertArrayEquals(content, recorder.data.toByteArray());
+        assertEquals(0, pool.borrowed.get());
+    }
+
+    @Test
+    public void readThatCannotBeIssuedFailsTheScan() throws IOException, InterruptedException {
+        Recorder recorder = new Recorder(0);
+        try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(file, StandardOpenOption.WRITE)) {
+            ReadAheadFileReader reader = new ReadAheadFileReader(channel, BUFFER, DEPTH, recorder, pool);
+            reader.start();
+            recorder.awaitFinished();
+            reader.await();
+        }
+        assertTrue(String.valueOf(recorder.error), recorder.error instanceof NonReadableChannelException);
+        assertEquals(0, pool.borrowed.get());
+    }
+
+    @Test
+    public void readRejectedMidScanFailsTheScan() throws IOException, InterruptedException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        Recorder recorder = new Recorder(0) {
+            @Override
+            public void onData(long position, ByteBuffer buffer) {
+                super.onData(position, buffer);
+                //the reads already queued still run, the next one is refused
+                executor.shutdown();
+            }
+        };
+        try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(file, Collections.singleton(StandardOpenOption.READ), executor)) {
+            ReadAheadFileReader reader = new ReadAheadFileReader(channel, BUFFER, DEPTH, recorder, pool);
+            reader.start();
+            recorder.awaitFinished();
+            reader.await();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertTrue(String.valueOf(recorder.error), recorder.error instanceof RejectedExecutionException);
+        assertEquals(-1, recorder.completed);
+        assertEquals(0, pool.borrowed.get());
+    }
+
+    @Test
+    public void consumerThatThrowsFailsTheScan() throws IOException, InterruptedException {
+        Recorder recorder = new Recorder(3);
+        try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(file, StandardOpenOption.READ)) {
+            ReadAheadFileReader reader = new ReadAheadFileReader(channel, BUFFER, DEPTH, recorder, pool);
+            reader.start();
+            reader.await();
+            //the reads ahead of the failure complete on their own
+            long deadline = System.currentTimeMillis() + 10000;
+            while (pool.borrowed.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+        assertTrue(String.valueOf(recorder.error), recorder.error instanceof IllegalStateException);
+        assertEquals(2 * BUFFER, recorder.data.size());
+        assertEquals(0, pool.borrowed.get());
+    }
+}
@@ -1,10 +1,14 @@
 package com.rookieInn.nio.recursiveOperations;
 
+import com.rookieInn.nio.RandomAccessFiles.WorkingWithFileChannel.DeltaFileCopier;
+
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
 
 /**
  * Writing a Copy Files Application
@@ -20,6 +24,12 @@ import java.util.EnumSet;
  *      f. If a file cannot be visited, the visitFileFailed() method should return FileVisitResult.CONTINUE or TERMINATE, depending on your decision.
  *      g. The copy process can follow symbolic links if you specify the FOLLOW_LINKS option.
  *
+ * ParallelCopyTree copies the same way with a ForkJoinPool, for trees with many files.
+ *
+ * Sync mode (see TreeSync) skips the files whose size and time already match the target and can delete
+ * what the source no longer has, so running it again over a copy only costs a scan of the metadata:
+ *      CopyTree <from> <to> --sync [--delete] [--checksum] [--delta]
+ * --delta updates large files that changed in place, writing only their changed blocks (see DeltaFileCopier).
  *
  * Created by gxy on 2016/6/16.
  */
@@ -27,10 +37,16 @@ public class CopyTree implements FileVisitor{
 
     private final Path copyFrom;
     private final Path copyTo;
+    private final TreeSync sync;
 
     public CopyTree(Path copyFrom, Path copyTo) {
+        this(copyFrom, copyTo, null);
+    }
+
+    public CopyTree(Path copyFrom, Path copyTo, TreeSync sync) {
         this.copyFrom = copyFrom;
         this.copyTo = copyTo;
+        this.sync = sync;
     }
 
     public static void copySubTree(Path copyFrom, Path copyTo) {
@@ -43,8 +59,12 @@ public class CopyTree implements FileVisitor{
 
     @Override
     public FileVisitResult preVisitDirectory(Object dir, BasicFileAttributes attrs) throws IOException {
-        System.out.println("Copy directory: " + (Path) dir);
         Path newdir = copyTo.resolve(copyFrom.relativize((Path) dir));
+        //a directory left by an earlier copy is reused, REPLACE_EXISTING cannot replace it when it has entries
+        if (Files.isDirectory(newdir, LinkOption.NOFOLLOW_LINKS)) {
+            return FileVisitResult.CONTINUE;
+        }
+        System.out.println("Copy directory: " + (Path) dir);
         try {
             Files.copy((Path) dir, newdir, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
         } catch (IOException E) {
@@ -56,8 +76,25 @@ public class CopyTree implements FileVisitor{
 
     @Override
     public FileVisitResult visitFile(Object file, BasicFileAttributes attrs) throws IOException {
+        Path target = copyTo.resolve(copyFrom.relativize((Path) file));
+        if (sync != null) {
+            try {
+                if (sync.isUpToDate((Path) file, attrs, target)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                if (sync.copyDelta((Path) file, attrs, target)) {
+                    System.out.println("Update file: " + (Path) file);
+                    return FileVisitResult.CONTINUE;
+                }
+                if (!sync.makeRoomForFile(target)) {
+                    return FileVisitResult.CONTINUE;
+                }
+            } catch (IOException e) {
+                System.err.println("Unable to compare " + file + " with " + target + " [" + e + "]");
+            }
+        }
         System.out.println("Copy file: " + (Path) file);
-        copySubTree((Path) file, copyTo.resolve(copyFrom.relativize((Path) file)));
+        copySubTree((Path) file, target);
         return FileVisitResult.CONTINUE;
     }
 
@@ -74,6 +111,13 @@ public class CopyTree implements FileVisitor{
     public FileVisitResult postVisitDirectory(Object dir, IOException exc) throws IOException {
         if (exc == null) {
             Path newdir = copyTo.resolve(copyFrom.relativize((Path) dir));
+            if (sync != null) {
+                try {
+                    sync.deleteExtraneous((Path) dir, newdir);
+                } catch (IOException e) {
+                    System.err.println("Unable to delete extraneous entries of " + newdir + " [" + e + "]");
+                }
+            }
             try {
                 FileTime time = Files.getLastModifiedTime((Path) dir);
                 Files.setLastModifiedTime(newdir, time);
@@ -86,13 +130,25 @@ public class CopyTree implements FileVisitor{
     }
 
     public static void main(String[] args) throws IOException {
-        Path copyFrom = Paths.get("E:/idea/nio");
-        Path copyTo = Paths.get("E:/tmp");
+        Path copyFrom = Paths.get(args.length > 0 ? args[0] : "E:/idea/nio");
+        Path copyTo = Paths.get(args.length > 1 ? args[1] : "E:/tmp");
+        List<String> flags = Arrays.asList(args);
 
-        CopyTree walk = new CopyTree(copyFrom, copyTo);
+        TreeSync sync = null;
+        if (flags.contains("--sync")) {
+            sync = new TreeSync(flags.contains("--checksum"), flags.contains("--delete"), Long.getLong("sync.modifyWindow", 0));
+            if (flags.contains("--delta")) {
+                sync.setDelta(new DeltaFileCopier(Integer.getInteger("sync.deltaBlockKB", 64) * 1024),
+                        Long.getLong("sync.deltaMinSize", 16 * 1024 * 1024));
+            }
+        }
+        CopyTree walk = new CopyTree(copyFrom, copyTo, sync);
         EnumSet opts = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
 
         Files.walkFileTree(copyFrom, opts, Integer.MAX_VALUE, walk);
+        if (sync != null) {
+            System.out.println(sync.report());
+        }
     }
 
 }
@@ -19,6 +19,8 @@ import java.util.EnumSet;
  *      e. The delete process can follow symbolic links, which may be not advisable, since symbolic links may point files outside the deletetion domain.
  *         But if you are sure that this case can never happen, or a supplementary condition prevents undesirable deletions, then follow symbolic links.
  *
+ * ParallelDeleteTree deletes the same way with a ForkJoinPool, for trees with many files, and can rename a tree to a tombstone to delete it in the background.
+ *
  * Created by gxy on 2016/6/16.
  */
 public class DeleteDirectory implements FileVisitor {
@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.EnumSet;
 
 /**
@@ -29,12 +31,15 @@ import java.util.EnumSet;
  *      g. The move process can follow symbolic links if you specify the FOLLOW_LINKS option.
  *         Keep in mind that moving a symbolic link moves the link itself, not target of that link.
  *
+ * ParallelMoveTree renames whole directories when they stay on the same file store and moves the rest with a ForkJoinPool.
+ *
  * Created by gxy on 2016/6/16.
  */
 public class MoveTree implements FileVisitor {
     private final Path moveFrom;
     private final Path moveTo;
-    static FileTime time = null;
+    //the times of the directories being visited, innermost first: push and pop work at the head
+    private final Deque<FileTime> times = new ArrayDeque<>();
 
     public MoveTree(Path moveFrom, Path moveTo) {
         this.moveFrom = moveFrom;
@@ -65,7 +70,7 @@ public class MoveTree implements FileVisitor {
         Path newdir = moveTo.resolve(moveFrom.relativize((Path)dir));
         try {
             Files.copy((Path)dir, newdir, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
-            time = Files.getLastModifiedTime((Path)dir);
+            times.push(attrs.lastModifiedTime());
         } catch (IOException e) {
             System.err.println("Unable to move " + newdir + "[" + e + "]");
             return FileVisitResult.SKIP_SUBTREE;
@@ -92,6 +97,7 @@ public class MoveTree implements FileVisitor {
         System.out.println("Delete directory: "  + (Path)dir);
         //删除文件家
         Path newdir = moveTo.resolve(moveFrom.relativize((Path)dir));
+        FileTime time = times.pop();
         try{
             Files.setLastModifiedTime(newdir, time);
             Files.delete((Path) dir);
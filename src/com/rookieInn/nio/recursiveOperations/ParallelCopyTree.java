@@ -0,0 +1,288 @@
+package com.rookieInn.nio.recursiveOperations;
+
+import com.rookieInn.nio.RandomAccessFiles.WorkingWithFileChannel.DeltaFileCopier;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies a file tree with a ForkJoinPool instead of CopyTree's single walkFileTree() thread.
+ *
+ *  Every directory is a task: it creates its target directory, forks one task per subdirectory and one per
+ *  batch of files, waits for all of them and only then restores its own last modified time, which the
+ *  copies into it have changed. Walking and copying share the pool, so its parallelism is also the number
+ *  of files copied at the same time.
+ *
+ *  The rules of CopyTree are kept: files are copied with REPLACE_EXISTING and COPY_ATTRIBUTES, a failed
+ *  entry is reported and skipped, symbolic links are followed and a directory that links back to one of
+ *  its ancestors is reported as a cycle instead of being copied forever. A target directory that already
+ *  exists is reused, so the copy can be run again over an earlier one.
+ *
+ *  With a TreeSync files that are already up to date are skipped and, if asked, entries the source does
+ *  not have are deleted from every target directory before its time is restored. --delta updates large
+ *  files in place by their changed blocks.
+ *
+ *  usage: ParallelCopyTree <from> <to> [parallelism] [--verbose] [--sync] [--delete] [--checksum] [--delta]
+ */
+public class ParallelCopyTree {
+
+    private static final int FILE_BATCH = 32;
+
+    /**
+     * The chain of directories above a task, to notice a link back to one of them.
+     */
+    static class Ancestor {
+        final Path dir;
+        final Object fileKey;
+        final Ancestor parent;
+
+        Ancestor(Path dir, Object fileKey, Ancestor parent) {
+            this.dir = dir;
+            this.fileKey = fileKey;
+            this.parent = parent;
+        }
+    }
+
+    private final Path copyFrom;
+    private final Path copyTo;
+    private final ForkJoinPool pool;
+    private final CopyOption[] options = {StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES};
+
+    final AtomicLong files = new AtomicLong();
+    final AtomicLong directories = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    private boolean verbose = false;
+    private TreeSync sync;
+
+    public ParallelCopyTree(Path copyFrom, Path copyTo, int parallelism) {
+        this.copyFrom = copyFrom;
+        this.copyTo = copyTo;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public void setSync(TreeSync sync) {
+        this.sync = sync;
+    }
+
+    public void copy() throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(copyFrom, BasicFileAttributes.class);
+        try {
+            if (attrs.isDirectory()) {
+                pool.invoke(new DirectoryTask(copyFrom, attrs, null));
+            } else {
+                copyFile(copyFrom, attrs, copyTo);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final BasicFileAttributes attrs;
+        private final Ancestor parent;
+
+        DirectoryTask(Path dir, BasicFileAttributes attrs, Ancestor parent) {
+            this.dir = dir;
+            this.attrs = attrs;
+            this.parent = parent;
+        }
+
+        @Override
+        protected void compute() {
+            Path newdir = target(dir);
+            try {
+                if (!Files.isDirectory(newdir, LinkOption.NOFOLLOW_LINKS)) {
+                    Files.copy(dir, newdir, options);
+                }
+            } catch (IOException e) {
+                error("Unable to create " + newdir, e);
+                return;
+            }
+            directories.incrementAndGet();
+            if (verbose) {
+                System.out.println("Copy directory: " + dir);
+            }
+
+            Ancestor self = new Ancestor(dir, attrs.fileKey(), parent);
+            List<RecursiveAction> tasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>();
+            List<BasicFileAttributes> batchAttrs = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes entryAttrs;
+                    try {
+                        //follow links like CopyTree does with FOLLOW_LINKS
+                        entryAttrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        error("Error occurred, unable to copy: " + entry, e);
+                        continue;
+                    }
+
+                    if (entryAttrs.isDirectory()) {
+                        if (isLoop(entry, entryAttrs, self)) {
+                            errors.incrementAndGet();
+                            System.err.println("Cycle was detected: " + entry);
+                            continue;
+                        }
+                        tasks.add(new DirectoryTask(entry, entryAttrs, self));
+                    } else {
+                        batch.add(entry);
+                        batchAttrs.add(entryAttrs);
+                        if (batch.size() == FILE_BATCH) {
+                            tasks.add(new FileBatchTask(batch, batchAttrs));
+                            batch = new ArrayList<>();
+                            batchAttrs = new ArrayList<>();
+                        }
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                error("Unable to list " + dir, e);
+            }
+            if (!batch.isEmpty()) {
+                tasks.add(new FileBatchTask(batch, batchAttrs));
+            }
+            invokeAll(tasks);
+
+            if (sync != null) {
+                try {
+                    sync.deleteExtraneous(dir, newdir);
+                } catch (IOException e) {
+                    error("Unable to delete extraneous entries of " + newdir, e);
+                }
+            }
+
+            //the copies into newdir changed its time, set it once they are all done
+            try {
+                Files.setLastModifiedTime(newdir, attrs.lastModifiedTime());
+            } catch (IOException e) {
+                error("Unable to copy all attributes to: " + newdir, e);
+            }
+        }
+    }
+
+    class FileBatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> files;
+        private final List<BasicFileAttributes> attrs;
+
+        FileBatchTask(List<Path> files, List<BasicFileAttributes> attrs) {
+            this.files = files;
+            this.attrs = attrs;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = 0; i < files.size(); i++) {
+                Path file = files.get(i);
+                try {
+                    copyFile(file, attrs.get(i), target(file));
+                } catch (IOException e) {
+                    error("Unable to copy " + file, e);
+                }
+            }
+        }
+    }
+
+    //copy one regular file (or whatever the link points to), override to copy differently
+    protected void copyFile(Path file, BasicFileAttributes attrs, Path target) throws IOException {
+        if (sync != null) {
+            if (sync.isUpToDate(file, attrs, target)) {
+                return;
+            }
+            if (sync.copyDelta(file, attrs, target)) {
+                if (verbose) {
+                    System.out.println("Update file: " + file);
+                }
+                files.incrementAndGet();
+                return;
+            }
+            if (!sync.makeRoomForFile(target)) {
+                return;
+            }
+        }
+        if (verbose) {
+            System.out.println("Copy file: " + file);
+        }
+        Files.copy(file, target, options);
+        files.incrementAndGet();
+        bytes.addAndGet(attrs.size());
+    }
+
+    protected Path target(Path source) {
+        return copyTo.resolve(copyFrom.relativize(source).toString());
+    }
+
+    private static boolean isLoop(Path dir, BasicFileAttributes attrs, Ancestor ancestor) {
+        Object key = attrs.fileKey();
+        for (; ancestor != null; ancestor = ancestor.parent) {
+            if (key != null && ancestor.fileKey != null) {
+                if (key.equals(ancestor.fileKey)) {
+                    return true;
+                }
+            } else {
+                //no file keys on this platform, fall back to comparing the files
+                try {
+                    if (Files.isSameFile(dir, ancestor.dir)) {
+                        return true;
+                    }
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    void error(String message, Exception e) {
+        errors.incrementAndGet();
+        System.err.println(message + " [" + e + "]");
+    }
+
+    public String report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1000000000.0;
+        return directories.get() + " directories, " + files.get() + " files, " + bytes.get() + " bytes in "
+                + String.format("%.2f", seconds) + " s: " + String.format("%.0f", files.get() / seconds) + " files/s, "
+                + String.format("%.1f", bytes.get() / seconds / (1024 * 1024)) + " MB/s, " + errors.get() + " errors";
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path copyFrom = Paths.get(args.length > 0 ? args[0] : "E:/idea/nio");
+        Path copyTo = Paths.get(args.length > 1 ? args[1] : "E:/tmp");
+        int parallelism = args.length > 2 && !args[2].startsWith("--") ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors() * 2;
+
+        ParallelCopyTree tree = new ParallelCopyTree(copyFrom, copyTo, parallelism);
+        List<String> flags = Arrays.asList(args);
+        tree.setVerbose(flags.contains("--verbose"));
+        TreeSync sync = null;
+        if (flags.contains("--sync")) {
+            sync = new TreeSync(flags.contains("--checksum"), flags.contains("--delete"), Long.getLong("sync.modifyWindow", 0));
+            if (flags.contains("--delta")) {
+                sync.setDelta(new DeltaFileCopier(Integer.getInteger("sync.deltaBlockKB", 64) * 1024),
+                        Long.getLong("sync.deltaMinSize", 16 * 1024 * 1024));
+            }
+            tree.setSync(sync);
+        }
+        long start = System.nanoTime();
+        tree.copy();
+        System.out.println(tree.report(System.nanoTime() - start));
+        if (sync != null) {
+            System.out.println(sync.report());
+        }
+    }
+}
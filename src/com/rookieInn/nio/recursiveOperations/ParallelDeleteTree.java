@@ -0,0 +1,255 @@
+package com.rookieInn.nio.recursiveOperations;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes a file tree with a ForkJoinPool instead of DeleteDirectory's single walkFileTree() thread.
+ *
+ *  Every directory is a task: it lists its entries, forks one task per subdirectory and one per batch of
+ *  files, waits for all of them and only then deletes itself, so directories go bottom-up. The pool's
+ *  parallelism bounds the number of deletes in flight. On platforms with a SecureDirectoryStream (Linux)
+ *  a subdirectory is opened relative to its parent's open directory with NOFOLLOW_LINKS and files are
+ *  unlinked relative to their open directory, so no path is resolved again: a directory swapped for a
+ *  link after it was listed fails to open instead of being followed.
+ *
+ *  Symbolic links are never followed, a link is deleted and what it points to is left alone; unlike
+ *  DeleteDirectory with FOLLOW_LINKS, nothing outside the tree can be deleted. The root is opened through
+ *  its parent too, so a link passed as the tree, or swapped in for it, is not listed. A failed entry is reported
+ *  and the directories above it are kept.
+ *
+ *  deleteInBackground() first renames the tree to a tombstone next to it (.deleting-<name>-<nanos>), which
+ *  is a single rename on the same file store, and returns while the pool deletes the tombstone. A file or a
+ *  link is unlinked where it is. The pool's threads are daemons, a tombstone left by a JVM that exited early
+ *  is found by sweepTombstones().
+ *
+ *  usage: ParallelDeleteTree <dir> [parallelism] [--background] [--verbose]
+ */
+public class ParallelDeleteTree {
+
+    public static final String TOMBSTONE_PREFIX = ".deleting-";
+
+    private static final int FILE_BATCH = 64;
+
+    private final ForkJoinPool pool;
+
+    final AtomicLong files = new AtomicLong();
+    final AtomicLong directories = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    private boolean verbose = false;
+
+    public ParallelDeleteTree(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    //delete path and everything below it, return when it is gone
+    public void delete(Path path) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (attrs.isDirectory()) {
+            pool.invoke(new DirectoryTask(path, null));
+        } else {
+            Files.delete(path);
+            files.incrementAndGet();
+        }
+    }
+
+    //rename dir to a tombstone and delete that in the pool, the returned task completes when it is gone
+    public ForkJoinTask<?> deleteInBackground(Path dir) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attrs.isDirectory()) {
+            //a file or a link is a single unlink in place, a tombstone of it would never be swept
+            return pool.submit(new FileBatchTask(Collections.singletonList(dir), null));
+        }
+        Path tombstone;
+        try {
+            tombstone = tombstone(dir);
+        } catch (AtomicMoveNotSupportedException e) {
+            //a mount point or a file store without rename, delete it where it is
+            tombstone = dir;
+        }
+        if (verbose) {
+            System.out.println("Tombstone: " + tombstone);
+        }
+        return pool.submit(new DirectoryTask(tombstone, null));
+    }
+
+    public Path tombstone(Path dir) throws IOException {
+        Path tombstone = dir.resolveSibling(TOMBSTONE_PREFIX + dir.getFileName() + "-" + System.nanoTime());
+        return Files.move(dir, tombstone, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //delete the tombstones an earlier run left in parent in the background, return how many were found
+    public int sweepTombstones(Path parent) throws IOException {
+        int found = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(parent, TOMBSTONE_PREFIX + "*")) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    pool.submit(new DirectoryTask(entry, null));
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    //wait for the background deletes and stop the pool
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(timeout, unit);
+    }
+
+    class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final SecureDirectoryStream<Path> parentStream;
+
+        DirectoryTask(Path dir, SecureDirectoryStream<Path> parentStream) {
+            this.dir = dir;
+            this.parentStream = parentStream;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            //the stream stays open until the batches that delete relative to it are done
+            try (DirectoryStream<Path> entries = open()) {
+                SecureDirectoryStream<Path> secure = entries instanceof SecureDirectoryStream
+                        ? (SecureDirectoryStream<Path>) entries : null;
+                List<Path> batch = new ArrayList<>();
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        tasks.add(new DirectoryTask(entry, secure));
+                    } else {
+                        batch.add(entry);
+                        if (batch.size() == FILE_BATCH) {
+                            tasks.add(new FileBatchTask(batch, secure));
+                            batch = new ArrayList<>();
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    tasks.add(new FileBatchTask(batch, secure));
+                }
+                invokeAll(tasks);
+            } catch (IOException | DirectoryIteratorException e) {
+                error("Unable to list " + dir, e);
+                return;
+            }
+
+            //all children are done, the directory is empty unless one of them failed
+            try {
+                if (parentStream != null) {
+                    parentStream.deleteDirectory(dir.getFileName());
+                } else {
+                    Files.delete(dir);
+                }
+                directories.incrementAndGet();
+                if (verbose) {
+                    System.out.println("Deleted: " + dir);
+                }
+            } catch (NoSuchFileException e) {
+                //someone else deleted it already
+            } catch (IOException e) {
+                error("Not deleted: " + dir, e);
+            }
+        }
+
+        //relative to the parent's open directory, a link put in place of dir since it was listed is not followed
+        private DirectoryStream<Path> open() throws IOException {
+            if (parentStream != null) {
+                return parentStream.newDirectoryStream(dir.getFileName(), LinkOption.NOFOLLOW_LINKS);
+            }
+            //the root, opened the same way through a stream on its parent that is closed right after
+            Path parent = dir.getParent() != null ? dir.getParent() : dir.toAbsolutePath().getParent();
+            if (parent != null) {
+                try (DirectoryStream<Path> siblings = Files.newDirectoryStream(parent)) {
+                    if (siblings instanceof SecureDirectoryStream) {
+                        return ((SecureDirectoryStream<Path>) siblings).newDirectoryStream(dir.getFileName(), LinkOption.NOFOLLOW_LINKS);
+                    }
+                }
+            }
+            return Files.newDirectoryStream(dir);
+        }
+    }
+
+    class FileBatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> files;
+        private final SecureDirectoryStream<Path> stream;
+
+        FileBatchTask(List<Path> files, SecureDirectoryStream<Path> stream) {
+            this.files = files;
+            this.stream = stream;
+        }
+
+        @Override
+        protected void compute() {
+            for (Path file : files) {
+                try {
+                    if (stream != null) {
+                        stream.deleteFile(file.getFileName());
+                    } else {
+                        Files.delete(file);
+                    }
+                    ParallelDeleteTree.this.files.incrementAndGet();
+                    if (verbose) {
+                        System.out.println("Deleted: " + file);
+                    }
+                } catch (NoSuchFileException e) {
+                    //someone else deleted it already
+                } catch (IOException e) {
+                    error("Not deleted: " + file, e);
+                }
+            }
+        }
+    }
+
+    void error(String message, Exception e) {
+        errors.incrementAndGet();
+        System.err.println(message + " [" + e + "]");
+    }
+
+    public String report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1000000000.0;
+        return directories.get() + " directories, " + files.get() + " files deleted in " + String.format("%.2f", seconds)
+                + " s: " + String.format("%.0f", (directories.get() + files.get()) / seconds) + " entries/s, "
+                + errors.get() + " errors";
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "E:/tmp");
+        int parallelism = args.length > 1 && !args[1].startsWith("--") ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 2;
+        List<String> flags = Arrays.asList(args);
+
+        ParallelDeleteTree tree = new ParallelDeleteTree(parallelism);
+        tree.setVerbose(flags.contains("--verbose"));
+        long start = System.nanoTime();
+        if (flags.contains("--background")) {
+            ForkJoinTask<?> task = tree.deleteInBackground(dir);
+            System.out.println(dir + " is gone after " + String.format("%.2f", (System.nanoTime() - start) / 1000000.0) + " ms");
+            //a real caller goes on with its work, this one waits so the JVM does not exit under the pool
+            task.get();
+        } else {
+            tree.delete(dir);
+        }
+        System.out.println(tree.report(System.nanoTime() - start));
+        tree.shutdown(1, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,127 @@
+package com.rookieInn.nio.recursiveOperations;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ParallelDeleteTree deletes links and files passed as the tree in place and never lists what a link points to.
+ */
+public class ParallelDeleteTreeTest {
+
+    private Path dir;
+    private Path work;
+    private Path outside;
+    private ParallelDeleteTree tree;
+
+    @Before
+    public void createDirectories() throws IOException {
+        dir = Files.createTempDirectory("parallel-delete");
+        work = Files.createDirectory(dir.resolve("work"));
+        outside = Files.createDirectory(dir.resolve("outside"));
+        Files.write(outside.resolve("keep.txt"), "keep".getBytes());
+        Files.createDirectory(outside.resolve("sub"));
+        Files.write(outside.resolve("sub").resolve("keep.bin"), new byte[100]);
+        tree = new ParallelDeleteTree(2);
+    }
+
+    @After
+    public void deleteDirectories() throws IOException, InterruptedException {
+        tree.shutdown(10, TimeUnit.SECONDS);
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException exc) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void assertOutsideIntact() throws IOException {
+        assertEquals(Arrays.asList(outside.resolve("keep.txt"), outside.resolve("sub")), list(outside));
+        assertEquals(100, Files.size(outside.resolve("sub").resolve("keep.bin")));
+    }
+
+    @Test
+    public void backgroundDeleteOfALinkKeepsWhatItPointsTo() throws IOException, InterruptedException, ExecutionException {
+        Path link = Files.createSymbolicLink(work.resolve("link"), work.relativize(outside));
+        tree.deleteInBackground(link).get();
+
+        assertFalse(Files.exists(link, LinkOption.NOFOLLOW_LINKS));
+        assertTrue(list(work).isEmpty());
+        assertOutsideIntact();
+        assertEquals(1, tree.files.get());
+        assertEquals(0, tree.errors.get());
+    }
+
+    @Test
+    public void backgroundDeleteOfAFileLeavesNoTombstone() throws IOException, InterruptedException, ExecutionException {
+        Path file = Files.write(work.resolve("file.txt"), "gone".getBytes());
+        tree.deleteInBackground(file).get();
+
+        assertTrue(list(work).isEmpty());
+        assertEquals(0, tree.sweepTombstones(work));
+        assertEquals(1, tree.files.get());
+        assertEquals(0, tree.errors.get());
+    }
+
+    @Test
+    public void backgroundDeleteOfATreeLeavesLinkedDirectoriesAlone() throws IOException, InterruptedException, ExecutionException {
+        Path root = Files.createDirectories(work.resolve("root").resolve("a"));
+        Files.write(root.resolve("f.txt"), "f".getBytes());
+        Files.createSymbolicLink(root.resolve("link"), outside);
+        tree.deleteInBackground(work.resolve("root")).get();
+
+        assertTrue(list(work).isEmpty());
+        assertOutsideIntact();
+        assertEquals(2, tree.directories.get());
+        assertEquals(2, tree.files.get());
+    }
+
+    @Test
+    public void rootSwappedForALinkIsNotListed() throws IOException {
+        //what a tombstone task finds when the directory was replaced by a link after the check
+        Path link = Files.createSymbolicLink(work.resolve("swapped"), outside);
+        tree.new DirectoryTask(link, null).invoke();
+
+        assertOutsideIntact();
+        assertEquals(1, tree.errors.get());
+        assertEquals(0, tree.files.get());
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries);
+        return entries;
+    }
+}
@@ -0,0 +1,204 @@
+package com.rookieInn.nio.recursiveOperations;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves a file tree with as few operations as possible, instead of MoveTree's copy of every directory and
+ * move of every file.
+ *
+ *  Every directory is first renamed as a whole with ATOMIC_MOVE, which on the same file store moves the
+ *  subtree in one step whatever its size. Only when that fails, because the target is on another file
+ *  store (a subtree mounted from elsewhere counts too) or because the target directory already exists and
+ *  has entries, the directory is taken apart: its target is created, its subdirectories are moved the same
+ *  way as tasks of a ForkJoinPool, its files are moved in batches (Files.move() renames them or copies and
+ *  deletes them across file stores), then the emptied source directory is deleted. Trying the rename is
+ *  cheaper than comparing FileStores up front, which means reading the mount table for every directory.
+ *
+ *  Each task keeps the last modified time of its own source directory and gives it to the target once all
+ *  of its children are moved. Symbolic links are moved as links, never followed.
+ *
+ *  usage: ParallelMoveTree <from> <to> [parallelism] [--verbose]
+ */
+public class ParallelMoveTree {
+
+    private static final int FILE_BATCH = 32;
+
+    private final Path moveFrom;
+    private final Path moveTo;
+    private final ForkJoinPool pool;
+
+    final AtomicLong renames = new AtomicLong();
+    final AtomicLong files = new AtomicLong();
+    final AtomicLong directories = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    private boolean verbose = false;
+
+    public ParallelMoveTree(Path moveFrom, Path moveTo, int parallelism) {
+        this.moveFrom = moveFrom;
+        this.moveTo = moveTo;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public void move() throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(moveFrom, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        try {
+            if (attrs.isDirectory()) {
+                pool.invoke(new DirectoryTask(moveFrom, moveTo, attrs.lastModifiedTime()));
+            } else {
+                Files.move(moveFrom, moveTo, StandardCopyOption.REPLACE_EXISTING);
+                files.incrementAndGet();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Path target;
+        private final FileTime time;
+
+        DirectoryTask(Path dir, Path target, FileTime time) {
+            this.dir = dir;
+            this.target = target;
+            this.time = time;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                Files.move(dir, target, StandardCopyOption.ATOMIC_MOVE);
+                renames.incrementAndGet();
+                if (verbose) {
+                    System.out.println("Rename directory: " + dir);
+                }
+                return;
+            } catch (AtomicMoveNotSupportedException e) {
+                //another file store, move the entries one by one
+            } catch (IOException e) {
+                if (!Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+                    error("Unable to move " + dir, e);
+                    return;
+                }
+                //the target directory exists and has entries, merge into it
+            }
+
+            try {
+                if (!Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+                    Files.copy(dir, target, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            } catch (IOException e) {
+                error("Unable to create " + target, e);
+                return;
+            }
+            if (verbose) {
+                System.out.println("Move directory: " + dir);
+            }
+
+            List<RecursiveAction> tasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes entryAttrs;
+                    try {
+                        entryAttrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        error("Unable to move " + entry, e);
+                        continue;
+                    }
+                    Path entryTarget = target.resolve(entry.getFileName().toString());
+                    if (entryAttrs.isDirectory()) {
+                        tasks.add(new DirectoryTask(entry, entryTarget, entryAttrs.lastModifiedTime()));
+                    } else {
+                        batch.add(entry);
+                        if (batch.size() == FILE_BATCH) {
+                            tasks.add(new FileBatchTask(batch, target));
+                            batch = new ArrayList<>();
+                        }
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                error("Unable to list " + dir, e);
+            }
+            if (!batch.isEmpty()) {
+                tasks.add(new FileBatchTask(batch, target));
+            }
+            invokeAll(tasks);
+
+            //the moves changed the times of both directories, give the target the one dir had
+            try {
+                Files.setLastModifiedTime(target, time);
+                Files.delete(dir);
+                directories.incrementAndGet();
+            } catch (IOException e) {
+                error("Unable to finish moving " + dir, e);
+            }
+        }
+    }
+
+    class FileBatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> files;
+        private final Path targetDir;
+
+        FileBatchTask(List<Path> files, Path targetDir) {
+            this.files = files;
+            this.targetDir = targetDir;
+        }
+
+        @Override
+        protected void compute() {
+            for (Path file : files) {
+                try {
+                    //a rename on the same file store, a copy and a delete across file stores
+                    Files.move(file, targetDir.resolve(file.getFileName().toString()), StandardCopyOption.REPLACE_EXISTING);
+                    ParallelMoveTree.this.files.incrementAndGet();
+                    if (verbose) {
+                        System.out.println("Move file: " + file);
+                    }
+                } catch (IOException e) {
+                    error("Unable to move " + file, e);
+                }
+            }
+        }
+    }
+
+    void error(String message, Exception e) {
+        errors.incrementAndGet();
+        System.err.println(message + " [" + e + "]");
+    }
+
+    public String report(long elapsedNanos) {
+        return renames.get() + " directories renamed, " + directories.get() + " moved entry by entry, "
+                + files.get() + " files moved in " + String.format("%.2f", elapsedNanos / 1000000000.0) + " s, "
+                + errors.get() + " errors";
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path moveFrom = Paths.get(args.length > 0 ? args[0] : "E:/temp");
+        Path moveTo = Paths.get(args.length > 1 ? args[1] : "E:/tmp");
+        int parallelism = args.length > 2 && !args[2].startsWith("--") ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors() * 2;
+
+        ParallelMoveTree tree = new ParallelMoveTree(moveFrom, moveTo, parallelism);
+        tree.setVerbose(Arrays.asList(args).contains("--verbose"));
+        long start = System.nanoTime();
+        tree.move();
+        System.out.println(tree.report(System.nanoTime() - start));
+    }
+}
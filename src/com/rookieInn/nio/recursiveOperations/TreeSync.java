@@ -0,0 +1,208 @@
+package com.rookieInn.nio.recursiveOperations;
+
+import com.rookieInn.nio.RandomAccessFiles.WorkingWithFileChannel.DeltaFileCopier;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The decisions of an rsync-like sync, shared by CopyTree and ParallelCopyTree.
+ *
+ *  A target file is up to date when it has the size and last modified time of the source, both taken from
+ *  the BasicFileAttributes the walk already has, so a tree that did not change costs one stat per file.
+ *  Times closer than modifyWindow milliseconds count as equal (file systems like FAT keep 2 s steps).
+ *  With checksum the times are ignored and files of equal size are compared byte by byte instead, which
+ *  on a local copy is cheaper than hashing both sides; a file found equal gets the source time, so the
+ *  next run is cheap again.
+ *
+ *  deleteExtraneous(sourceDir, targetDir) removes what the target directory has and the source does not.
+ *  A directory found where the source has a file is never touched by isUpToDate(); the copy asks
+ *  makeRoomForFile(), which deletes it only when extraneous entries may be deleted and otherwise counts a
+ *  conflict and leaves both alone.
+ *
+ *  With a DeltaFileCopier, copyDelta() updates a target of at least deltaMinSize bytes in place and writes
+ *  only the blocks that changed. Its signatures are cached outside the target tree, a deleted target takes
+ *  its signature with it.
+ */
+public class TreeSync {
+
+    private final boolean checksum;
+    private final boolean deleteExtraneous;
+    private final long modifyWindow;
+
+    final AtomicLong skipped = new AtomicLong();
+    final AtomicLong deleted = new AtomicLong();
+    final AtomicLong conflicts = new AtomicLong();
+    final AtomicLong deltaFiles = new AtomicLong();
+    final AtomicLong deltaBytes = new AtomicLong();
+    private DeltaFileCopier delta;
+    private long deltaMinSize;
+
+    //two direct buffers per walking thread for contentEquals, allocated once instead of per file
+    private static final ThreadLocal<ByteBuffer[]> compareBuffers = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            return new ByteBuffer[]{ByteBuffer.allocateDirect(64 * 1024), ByteBuffer.allocateDirect(64 * 1024)};
+        }
+    };
+
+    public TreeSync(boolean checksum, boolean deleteExtraneous, long modifyWindow) {
+        this.checksum = checksum;
+        this.deleteExtraneous = deleteExtraneous;
+        this.modifyWindow = modifyWindow;
+    }
+
+    //true when target already is a copy of source and nothing has to be written
+    public boolean isUpToDate(Path source, BasicFileAttributes attrs, Path target) throws IOException {
+        BasicFileAttributes targetAttrs;
+        try {
+            targetAttrs = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!targetAttrs.isRegularFile() || targetAttrs.size() != attrs.size()) {
+            return false;
+        }
+
+        long sourceTime = attrs.lastModifiedTime().toMillis();
+        boolean sameTime = Math.abs(targetAttrs.lastModifiedTime().toMillis() - sourceTime) <= modifyWindow;
+        if (!checksum) {
+            if (sameTime) {
+                skipped.incrementAndGet();
+            }
+            return sameTime;
+        }
+        if (!contentEquals(source, target)) {
+            return false;
+        }
+        if (!sameTime) {
+            Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+        }
+        skipped.incrementAndGet();
+        return true;
+    }
+
+    //false when a directory stands where the file has to go and may not be deleted, the file is not copied then
+    public boolean makeRoomForFile(Path target) throws IOException {
+        if (!Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+            return true;
+        }
+        if (!deleteExtraneous) {
+            conflicts.incrementAndGet();
+            System.err.println("Conflict: " + target + " is a directory, the file is not copied (--delete replaces it)");
+            return false;
+        }
+        //REPLACE_EXISTING cannot replace a non-empty directory
+        System.out.println("Replace directory: " + target);
+        deleteTree(target);
+        return true;
+    }
+
+    public void setDelta(DeltaFileCopier delta, long deltaMinSize) {
+        this.delta = delta;
+        this.deltaMinSize = deltaMinSize;
+    }
+
+    //update an existing target by its changed blocks, false when the file has to be copied whole
+    public boolean copyDelta(Path source, BasicFileAttributes attrs, Path target) throws IOException {
+        if (delta == null || attrs.size() < deltaMinSize || !Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+        deltaBytes.addAndGet(delta.copy(source, target));
+        deltaFiles.incrementAndGet();
+        return true;
+    }
+
+    public boolean deletesExtraneous() {
+        return deleteExtraneous;
+    }
+
+    //delete every entry of targetDir that has no counterpart in sourceDir, return how many were removed
+    public int deleteExtraneous(Path sourceDir, Path targetDir) throws IOException {
+        if (!deleteExtraneous) {
+            return 0;
+        }
+        int removed = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(targetDir)) {
+            for (Path entry : entries) {
+                Path source = sourceDir.resolve(entry.getFileName().toString());
+                if (!Files.exists(source)) {
+                    System.out.println("Delete extraneous: " + entry);
+                    deleteTree(entry);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    //delete a file, a link or a whole directory, links are never followed
+    void deleteTree(Path path) throws IOException {
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                deleted.incrementAndGet();
+                if (delta != null) {
+                    delta.forget(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(dir);
+                deleted.incrementAndGet();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static boolean contentEquals(Path first, Path second) throws IOException {
+        ByteBuffer a = compareBuffers.get()[0];
+        ByteBuffer b = compareBuffers.get()[1];
+        try (FileChannel one = FileChannel.open(first, StandardOpenOption.READ);
+             FileChannel two = FileChannel.open(second, StandardOpenOption.READ)) {
+            if (one.size() != two.size()) {
+                return false;
+            }
+            long position = 0;
+            while (true) {
+                a.clear();
+                b.clear();
+                int read = one.read(a, position);
+                if (read <= 0) {
+                    return true;
+                }
+                //read exactly as many bytes from the second file
+                b.limit(read);
+                while (b.hasRemaining()) {
+                    if (two.read(b, position + b.position()) < 0) {
+                        return false;
+                    }
+                }
+                a.flip();
+                b.flip();
+                if (!a.equals(b)) {
+                    return false;
+                }
+                position += read;
+            }
+        }
+    }
+
+    public String report() {
+        String report = skipped.get() + " up to date, " + deleted.get() + " entries deleted, " + conflicts.get() + " conflicts";
+        if (delta != null) {
+            report += ", " + deltaFiles.get() + " updated in place writing " + deltaBytes.get() + " bytes";
+        }
+        return report;
+    }
+}
@@ -0,0 +1,110 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * High-rate echo loop for one DatagramChannel.
+ *
+ *  The channel is non-blocking: every time the selector says it is readable, the loop drains up to
+ *  batchSize datagrams into a ring of direct buffers allocated once, then sends all the replies of the
+ *  batch back to back. When the socket send buffer is full the unsent replies stay in the ring, the loop
+ *  waits for OP_WRITE and does not read again until they are out, so the kernel receive buffer absorbs
+ *  the burst instead of the heap. Nothing is allocated per packet except the sender address.
+ */
+public class BatchedDatagramEcho implements Runnable {
+
+    private final DatagramChannel channel;
+    private final DatagramStats stats;
+    private final ByteBuffer[] ring;
+    private final SocketAddress[] senders;
+
+    private int count = 0;
+    private int nextReply = 0;
+
+    public BatchedDatagramEcho(DatagramChannel channel, int batchSize, int packetSize, DatagramStats stats) {
+        this.channel = channel;
+        this.stats = stats;
+        this.ring = new ByteBuffer[batchSize];
+        this.senders = new SocketAddress[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            ring[i] = ByteBuffer.allocateDirect(packetSize);
+        }
+    }
+
+    @Override
+    public void run() {
+        try (Selector selector = Selector.open()) {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+
+            while (channel.isOpen()) {
+                selector.select();
+                selector.selectedKeys().clear();
+
+                if (nextReply == count) {
+                    drain();
+                }
+                if (sendReplies()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                } else {
+                    //the send buffer is full, finish this batch before reading more
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            }
+        } catch (IOException e) {
+            if (channel.isOpen()) {
+                System.err.println(e);
+            }
+        }
+    }
+
+    //receive until the channel is empty or the ring is full
+    private void drain() throws IOException {
+        count = 0;
+        nextReply = 0;
+        long bytes = 0;
+        while (count < ring.length) {
+            ByteBuffer buffer = ring[count];
+            buffer.clear();
+            SocketAddress sender = channel.receive(buffer);
+            if (sender == null) {
+                break;
+            }
+            buffer.flip();
+            bytes += buffer.remaining();
+            senders[count++] = sender;
+        }
+        if (count > 0) {
+            stats.received(count, bytes);
+        }
+    }
+
+    //send the pending replies of the batch, false if the socket could not take all of them
+    private boolean sendReplies() throws IOException {
+        int first = nextReply;
+        long bytes = 0;
+        while (nextReply < count) {
+            ByteBuffer buffer = ring[nextReply];
+            int length = buffer.remaining();
+            try {
+                if (channel.send(buffer, senders[nextReply]) == 0 && length > 0) {
+                    break;
+                }
+                bytes += length;
+            } catch (IOException e) {
+                //an unreachable sender must not stop the loop
+                stats.replyDropped();
+            }
+            senders[nextReply++] = null;
+        }
+        if (nextReply > first) {
+            stats.sent(nextReply - first, bytes);
+        }
+        return nextReply == count;
+    }
+}
@@ -1,21 +1,45 @@
 package com.rookieInn.nio.socketApi;
 
+import com.rookieInn.nio.asynchronousChannel.DirectBufferPool;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
+ * Blocking echo server.
+ *
+ *  single:  the original mode, clients are served one at a time on the main thread.
+ *  virtual: the accept loop hands every SocketChannel to its own virtual thread, which runs the same
+ *           blocking read/write loop with a direct buffer borrowed from a DirectBufferPool. Blocking calls park
+ *           the virtual thread instead of an OS thread, so tens of thousands of connections stay cheap.
+ *           Virtual threads need Java 21, on older runtimes the server falls back to a platform thread
+ *           per connection.
+ *
+ *  usage: BlockingTcpServer [single | virtual]
+ *  Compare it with NonBlockingTcpServer using EchoBenchmark.
+ *
  * Created by gxy on 2016/6/24.
  */
 public class BlockingTcpServer {
 
+    private static final int BUFFER_SIZE = 1024;
+    private static final int MAX_POOLED_BUFFERS = 4096;
+
+    private static final DirectBufferPool bufferPool = new DirectBufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
     public static void main(String[] args) {
         final int DEFAULT_PORT = 8888;
         final String IP = "127.0.0.1";
+        final boolean virtual = args.length > 0 && "virtual".equals(args[0]);
 
-        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
 
         //create a new server socket channel
         try(ServerSocketChannel channel = ServerSocketChannel.open()) {
@@ -29,11 +53,16 @@ public class BlockingTcpServer {
                 channel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024);
                 channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
                 //bind the server socket channel to local address
-                channel.bind(new InetSocketAddress(IP, DEFAULT_PORT));
+                channel.bind(new InetSocketAddress(IP, DEFAULT_PORT), 1024);
 
                 //display a waiting message while ... waiting clients
                 System.out.println("Waiting for connections ...");
 
+                if (virtual) {
+                    serveConcurrently(channel);
+                    return;
+                }
+
                 //wait for incoming connections
                 while (true) {
                     SocketChannel socketChannel = channel.accept();
@@ -59,6 +88,60 @@ public class BlockingTcpServer {
         }
     }
 
+    //accept in a loop, one (virtual) thread per connection
+    private static void serveConcurrently(ServerSocketChannel channel) throws IOException {
+        ExecutorService executor = newThreadPerTaskExecutor();
+        try {
+            while (true) {
+                final SocketChannel socketChannel = channel.accept();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        echo(socketChannel);
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void echo(SocketChannel socketChannel) {
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            //transmitting data
+            while (socketChannel.read(buffer) != -1) {
+                buffer.flip();
 
+                socketChannel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    buffer.compact();
+                } else {
+                    buffer.clear();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+        } finally {
+            bufferPool.release(buffer);
+            try {
+                socketChannel.close();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+    }
+
+    //Executors.newVirtualThreadPerTaskExecutor() when the runtime has it (Java 21+), looked up so the class still builds on older JDKs
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            System.out.println("Serving every connection on its own virtual thread");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not available, serving every connection on its own platform thread");
+            return Executors.newCachedThreadPool();
+        }
+    }
 
 }
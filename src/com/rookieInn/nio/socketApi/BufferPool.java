@@ -0,0 +1,76 @@
+package com.rookieInn.nio.socketApi;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Size-classed arena of direct buffers.
+ *
+ *  Capacities are rounded up to a power of two between 512 bytes and 64 KB, every size class keeps
+ *  its own free list, so in steady state acquire() only pops a buffer that was released before.
+ *  Requests bigger than the largest class get an unpooled buffer that is simply dropped on release.
+ *
+ *  A pool is owned by a single reactor thread, buffers must be acquired and released on that thread,
+ *  this is why the free lists are plain ArrayDeques and the reference count is a plain int.
+ */
+public class BufferPool {
+
+    private static final int MIN_SHIFT = 9;
+    private static final int MAX_SHIFT = 16;
+
+    private final List<ArrayDeque<PooledBuffer>> freeLists;
+    private final int maxPerClass;
+
+    private long allocated = 0;
+
+    public BufferPool(int maxPerClass) {
+        this.maxPerClass = maxPerClass;
+        this.freeLists = new ArrayList<>(MAX_SHIFT - MIN_SHIFT + 1);
+        for (int i = MIN_SHIFT; i <= MAX_SHIFT; i++) {
+            freeLists.add(new ArrayDeque<PooledBuffer>());
+        }
+    }
+
+    //get a cleared buffer with at least the given capacity and a reference count of 1
+    public PooledBuffer acquire(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0) {
+            allocated++;
+            return new PooledBuffer(this, ByteBuffer.allocateDirect(capacity), -1);
+        }
+
+        PooledBuffer pooled = freeLists.get(sizeClass).poll();
+        if (pooled == null) {
+            allocated++;
+            pooled = new PooledBuffer(this, ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SHIFT)), sizeClass);
+        }
+        pooled.reset();
+        return pooled;
+    }
+
+    //called by PooledBuffer once its reference count drops to 0
+    void recycle(PooledBuffer pooled) {
+        if (pooled.sizeClass() < 0) {
+            return;
+        }
+        ArrayDeque<PooledBuffer> freeList = freeLists.get(pooled.sizeClass());
+        if (freeList.size() < maxPerClass) {
+            freeList.push(pooled);
+        }
+    }
+
+    //number of direct buffers allocated so far, it stops growing once the pool is warm
+    public long allocated() {
+        return allocated;
+    }
+
+    private static int sizeClass(int capacity) {
+        int shift = MIN_SHIFT;
+        while ((1 << shift) < capacity) {
+            shift++;
+        }
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,114 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * One reader, N workers on a single DatagramChannel, for when SO_REUSEPORT is not available.
+ *
+ *  The reader only receives: each datagram lands in a preallocated Packet taken from a free list and is
+ *  queued to a worker chosen by the hash of its sender, so the packets of one client stay in order.
+ *  Workers echo the packet on the shared channel (DatagramChannel is safe for concurrent senders) and put
+ *  the Packet back on the free list. When every Packet is in use the datagram is dropped and counted.
+ */
+public class DatagramFanOut implements Runnable {
+
+    static class Packet {
+        final ByteBuffer buffer;
+        SocketAddress sender;
+
+        Packet(int packetSize) {
+            this.buffer = ByteBuffer.allocateDirect(packetSize);
+        }
+    }
+
+    private final DatagramChannel channel;
+    private final DatagramStats stats;
+    private final BlockingQueue<Packet> free;
+    private final List<BlockingQueue<Packet>> workQueues;
+
+    public DatagramFanOut(DatagramChannel channel, int workers, int packets, int packetSize, DatagramStats stats) {
+        this.channel = channel;
+        this.stats = stats;
+        this.free = new ArrayBlockingQueue<>(packets);
+        for (int i = 0; i < packets; i++) {
+            free.add(new Packet(packetSize));
+        }
+        this.workQueues = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            workQueues.add(new ArrayBlockingQueue<Packet>(packets));
+        }
+    }
+
+    @Override
+    public void run() {
+        for (int i = 0; i < workQueues.size(); i++) {
+            Thread worker = new Thread(new Worker(workQueues.get(i)), "udp-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        //an extra packet to receive into when the free list is empty, its content is dropped
+        Packet spare = new Packet(free.peek() == null ? 65507 : free.peek().buffer.capacity());
+        try {
+            while (channel.isOpen()) {
+                Packet packet = free.poll();
+                boolean dropped = packet == null;
+                if (dropped) {
+                    packet = spare;
+                }
+
+                packet.buffer.clear();
+                packet.sender = channel.receive(packet.buffer);
+                packet.buffer.flip();
+                stats.received(1, packet.buffer.remaining());
+
+                if (dropped) {
+                    stats.replyDropped();
+                    continue;
+                }
+                int worker = (packet.sender.hashCode() & Integer.MAX_VALUE) % workQueues.size();
+                workQueues.get(worker).add(packet);
+            }
+        } catch (IOException e) {
+            if (channel.isOpen()) {
+                System.err.println(e);
+            }
+        }
+    }
+
+    class Worker implements Runnable {
+        private final BlockingQueue<Packet> queue;
+
+        Worker(BlockingQueue<Packet> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Packet packet = queue.take();
+                    try {
+                        int length = packet.buffer.remaining();
+                        channel.send(packet.buffer, packet.sender);
+                        stats.sent(1, length);
+                    } catch (IOException e) {
+                        stats.replyDropped();
+                    } finally {
+                        packet.sender = null;
+                        free.add(packet);
+                    }
+                }
+            } catch (InterruptedException e) {
+                //the server is shutting down
+            }
+        }
+    }
+}
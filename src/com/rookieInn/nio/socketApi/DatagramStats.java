@@ -0,0 +1,98 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Packet counters of a UDP server, shared by all its receive loops.
+ *
+ *  report() prints packets and bytes per second since the previous report, plus the datagrams the kernel
+ *  dropped on the server's port because the socket receive buffer was full. The kernel count is read from
+ *  /proc/net/udp, it is only available on Linux (-1 elsewhere).
+ */
+public class DatagramStats {
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong replyDrops = new AtomicLong();
+
+    private long lastReport = System.nanoTime();
+    private long lastReceived;
+    private long lastSent;
+    private long lastBytesReceived;
+
+    public void received(int packets, long bytes) {
+        received.addAndGet(packets);
+        bytesReceived.addAndGet(bytes);
+    }
+
+    public void sent(int packets, long bytes) {
+        sent.addAndGet(packets);
+        bytesSent.addAndGet(bytes);
+    }
+
+    //a reply the server gave up on
+    public void replyDropped() {
+        replyDrops.incrementAndGet();
+    }
+
+    public long received() {
+        return received.get();
+    }
+
+    public long sent() {
+        return sent.get();
+    }
+
+    public long replyDrops() {
+        return replyDrops.get();
+    }
+
+    //print the rates since the previous call
+    public synchronized void report(int port) {
+        long now = System.nanoTime();
+        double seconds = (now - lastReport) / 1e9;
+        long receivedNow = received.get();
+        long sentNow = sent.get();
+        long bytesNow = bytesReceived.get();
+
+        System.out.println(String.format(Locale.ROOT, "in: %.0f pkt/s %.2f MB/s | out: %.0f pkt/s | reply drops: %d | kernel drops: %d",
+                (receivedNow - lastReceived) / seconds, (bytesNow - lastBytesReceived) / seconds / (1024 * 1024),
+                (sentNow - lastSent) / seconds, replyDrops.get(), kernelDrops(port)));
+
+        lastReport = now;
+        lastReceived = receivedNow;
+        lastSent = sentNow;
+        lastBytesReceived = bytesNow;
+    }
+
+    //datagrams dropped by the kernel for the IPv4 UDP sockets bound to the port, -1 when unknown
+    public static long kernelDrops(int port) {
+        Path udp = Paths.get("/proc/net/udp");
+        if (!Files.isReadable(udp)) {
+            return -1;
+        }
+        try {
+            List<String> lines = Files.readAllLines(udp, StandardCharsets.US_ASCII);
+            String portHex = String.format(":%04X", port);
+            long drops = 0;
+            for (int i = 1; i < lines.size(); i++) {
+                String[] columns = lines.get(i).trim().split("\\s+");
+                if (columns.length > 12 && columns[1].endsWith(portHex)) {
+                    drops += Long.parseLong(columns[columns.length - 1]);
+                }
+            }
+            return drops;
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+}
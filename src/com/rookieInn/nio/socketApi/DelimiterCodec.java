@@ -0,0 +1,62 @@
+package com.rookieInn.nio.socketApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames terminated by a delimiter, "\n" for line based protocols.
+ * The delimiter is stripped from decoded frames and appended to encoded ones.
+ */
+public class DelimiterCodec extends FrameDecoder implements FrameEncoder {
+
+    private final byte[] delimiter;
+
+    public DelimiterCodec(int maxFrameLength, byte[] delimiter) {
+        super(maxFrameLength);
+        if (delimiter.length == 0) {
+            throw new IllegalArgumentException("empty delimiter");
+        }
+        this.delimiter = delimiter.clone();
+    }
+
+    @Override
+    protected int frameLength(ByteBuffer in) {
+        int start = in.position();
+        int last = in.limit() - delimiter.length;
+        for (int i = start; i <= last; i++) {
+            if (matches(in, i)) {
+                return i - start + delimiter.length;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(ByteBuffer in, int index) {
+        for (int j = 0; j < delimiter.length; j++) {
+            if (in.get(index + j) != delimiter[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected int headerLength() {
+        return 0;
+    }
+
+    @Override
+    protected int trailerLength() {
+        return delimiter.length;
+    }
+
+    @Override
+    public int encodedLength(ByteBuffer payload) {
+        return payload.remaining() + delimiter.length;
+    }
+
+    @Override
+    public void encode(ByteBuffer payload, ByteBuffer out) {
+        out.put(payload);
+        out.put(delimiter);
+    }
+}
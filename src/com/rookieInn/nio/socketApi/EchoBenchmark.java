@@ -0,0 +1,91 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop echo benchmark, to compare BlockingTcpServer and NonBlockingTcpServer on the same machine.
+ *
+ *  Every connection runs on its own thread: write one message, read the echo back completely, repeat
+ *  until the time is up. The server has to be started separately.
+ *
+ *  usage: EchoBenchmark <port> [connections] [seconds] [messageSize] [greetingBytes]
+ *      BlockingTcpServer virtual           ->  EchoBenchmark 8888 1000 10 128
+ *      NonBlockingTcpServer                ->  EchoBenchmark 5555 1000 10 128 7    (skips the "Hello!\n" greeting)
+ */
+public class EchoBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        final String IP = "127.0.0.1";
+        final int port = Integer.parseInt(args[0]);
+        final int connections = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        final int messageSize = args.length > 3 ? Integer.parseInt(args[3]) : 128;
+        final int greetingBytes = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+
+        final AtomicLong roundTrips = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(connections);
+        final long[] deadline = new long[1];
+
+        for (int i = 0; i < connections; i++) {
+            Thread client = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ByteBuffer message = ByteBuffer.allocateDirect(messageSize);
+                    ByteBuffer echo = ByteBuffer.allocateDirect(Math.max(messageSize, greetingBytes));
+                    try (SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(IP, port))) {
+                        readFully(socketChannel, echo, greetingBytes);
+                        start.await();
+
+                        long count = 0;
+                        while (System.nanoTime() < deadline[0]) {
+                            message.clear();
+                            while (message.hasRemaining()) {
+                                socketChannel.write(message);
+                            }
+                            readFully(socketChannel, echo, messageSize);
+                            count++;
+                        }
+                        roundTrips.addAndGet(count);
+                    } catch (IOException | InterruptedException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "echo-client-" + i);
+            client.setDaemon(true);
+            client.start();
+        }
+
+        //let every client connect before the clock starts
+        Thread.sleep(1000);
+        deadline[0] = System.nanoTime() + seconds * 1000000000L;
+        start.countDown();
+        done.await();
+
+        long total = roundTrips.get();
+        System.out.println("connections:       " + connections + " (" + failures.get() + " failed)");
+        System.out.println("round trips/s:     " + total / seconds);
+        System.out.println("echoed MB/s:       " + String.format("%.2f", total * (double) messageSize / seconds / (1024 * 1024)));
+        if (total > 0) {
+            System.out.println("mean latency (us): " + String.format("%.1f", (connections - failures.get()) * seconds * 1000000.0 / total));
+        }
+    }
+
+    private static void readFully(SocketChannel socketChannel, ByteBuffer buffer, int count) throws IOException {
+        buffer.clear();
+        buffer.limit(count);
+        while (buffer.hasRemaining()) {
+            if (socketChannel.read(buffer) == -1) {
+                throw new IOException("Connection closed by the server");
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A range of a file waiting in an OutboundQueue.
+ *
+ *  The bytes are moved with FileChannel.transferTo(position, count, target), so the kernel copies them
+ *  from the page cache to the socket and they never enter the heap. A short transfer keeps the position,
+ *  the next OP_WRITE resumes from there. The file is closed once the range is sent or the queue is cleared.
+ *  A file that was truncated below the end of the range fails the transfer, the bytes can never come.
+ */
+public class FileRegion {
+
+    private final FileChannel file;
+    private long position;
+    private final long end;
+
+    public FileRegion(FileChannel file, long position, long count) {
+        this.file = file;
+        this.position = position;
+        this.end = position + count;
+    }
+
+    //transfer as much as the target accepts, return the number of bytes moved
+    public long transferTo(WritableByteChannel target) throws IOException {
+        long total = 0;
+        while (position < end) {
+            long transferred = file.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                //0 means a full socket, unless the file ended before the range did
+                if (position >= file.size()) {
+                    throw new EOFException("File truncated at " + position + " of " + end + " bytes");
+                }
+                break;
+            }
+            position += transferred;
+            total += transferred;
+        }
+        return total;
+    }
+
+    public boolean isDone() {
+        return position >= end;
+    }
+
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.rookieInn.nio.socketApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames of a fixed number of bytes, without header or trailer.
+ */
+public class FixedLengthCodec extends FrameDecoder implements FrameEncoder {
+
+    private final int frameLength;
+
+    public FixedLengthCodec(int frameLength) {
+        super(frameLength);
+        if (frameLength <= 0) {
+            throw new IllegalArgumentException("frameLength must be positive");
+        }
+        this.frameLength = frameLength;
+    }
+
+    @Override
+    protected int frameLength(ByteBuffer in) {
+        return frameLength;
+    }
+
+    @Override
+    protected int headerLength() {
+        return 0;
+    }
+
+    @Override
+    protected int trailerLength() {
+        return 0;
+    }
+
+    @Override
+    public int encodedLength(ByteBuffer payload) {
+        return frameLength;
+    }
+
+    @Override
+    public void encode(ByteBuffer payload, ByteBuffer out) {
+        if (payload.remaining() != frameLength) {
+            throw new IllegalArgumentException("payload of " + payload.remaining() + " bytes, frames are " + frameLength + " bytes");
+        }
+        out.put(payload);
+    }
+}
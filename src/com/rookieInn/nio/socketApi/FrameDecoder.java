@@ -0,0 +1,93 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental frame decoder, the base of LengthFieldCodec, DelimiterCodec and FixedLengthCodec.
+ *
+ *  decode() works directly on the read buffer: every frame that is complete inside it is handed to the
+ *  pipeline as that same buffer, with position and limit narrowed to the frame content, so nothing is copied.
+ *  Only the bytes of a frame that crosses the end of the read buffer are copied into a cumulation buffer,
+ *  which is allocated the first time that happens and grown when a bigger frame shows up.
+ *
+ *  A decoder keeps the state of one connection, every connection needs its own instance.
+ */
+public abstract class FrameDecoder {
+
+    private final int maxFrameLength;
+    private ByteBuffer cumulation;
+
+    protected FrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    //whole length (header and trailer included) of the frame starting at in.position(), -1 while it is not known yet
+    protected abstract int frameLength(ByteBuffer in) throws IOException;
+
+    //bytes in front of the frame content
+    protected abstract int headerLength();
+
+    //bytes behind the frame content
+    protected abstract int trailerLength();
+
+    //in must be flipped (ready for reading), it is fully consumed when the method returns
+    public void decode(ByteBuffer in, FramePipeline pipeline) throws IOException {
+        if (cumulation != null && cumulation.position() > 0) {
+            //the previous read ended inside a frame, continue from the copied bytes
+            append(in);
+            cumulation.flip();
+            try {
+                emit(cumulation, pipeline);
+            } finally {
+                cumulation.compact();
+            }
+            return;
+        }
+
+        emit(in, pipeline);
+        if (in.hasRemaining()) {
+            append(in);
+        }
+    }
+
+    private void emit(ByteBuffer buffer, FramePipeline pipeline) throws IOException {
+        while (buffer.hasRemaining()) {
+            int length = frameLength(buffer);
+            if (length > maxFrameLength || (length < 0 && buffer.remaining() > maxFrameLength)) {
+                throw new IOException("Frame longer than " + maxFrameLength + " bytes");
+            }
+            //wait for the rest of the frame
+            if (length < 0 || length > buffer.remaining()) {
+                return;
+            }
+
+            int start = buffer.position();
+            int limit = buffer.limit();
+            int end = start + length;
+
+            //narrow the buffer to the frame content and hand it over
+            buffer.limit(end - trailerLength());
+            buffer.position(start + headerLength());
+            try {
+                pipeline.fireFrame(buffer);
+            } finally {
+                buffer.limit(limit);
+                buffer.position(end);
+            }
+        }
+    }
+
+    private void append(ByteBuffer in) {
+        int required = (cumulation == null ? 0 : cumulation.position()) + in.remaining();
+        if (cumulation == null || cumulation.capacity() < required) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(required, cumulation == null ? 256 : cumulation.capacity() * 2));
+            if (cumulation != null) {
+                cumulation.flip();
+                bigger.put(cumulation);
+            }
+            cumulation = bigger;
+        }
+        cumulation.put(in);
+    }
+}
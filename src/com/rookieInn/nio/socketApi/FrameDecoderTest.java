@@ -0,0 +1,137 @@
+package com.rookieInn.nio.socketApi;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Frames split across reads and several frames merged in one read, for every codec.
+ */
+public class FrameDecoderTest {
+
+    /**
+     * A pipeline that keeps a copy of every decoded frame.
+     */
+    static class Collector extends FramePipeline {
+        final List<String> frames;
+
+        Collector(FrameDecoder decoder, List<String> frames) {
+            super(decoder, (FrameEncoder) decoder, new FrameHandler() {
+                @Override
+                public void frameReceived(FramePipeline pipeline, ByteBuffer frame) {
+                    ((Collector) pipeline).frames.add(StandardCharsets.UTF_8.decode(frame).toString());
+                }
+            });
+            this.frames = frames;
+        }
+
+        @Override
+        protected PooledBuffer allocate(int capacity) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void send(PooledBuffer encoded) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void sendFile(FileRegion region) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final List<String> PAYLOADS = Arrays.asList("hello", "", "a somewhat longer frame than the others", "x");
+
+    //the encoded stream, cut into reads of the given sizes (the last size repeats)
+    private static List<String> decode(FrameDecoder decoder, byte[] stream, int... readSizes) throws IOException {
+        List<String> frames = new ArrayList<>();
+        Collector pipeline = new Collector(decoder, frames);
+        int position = 0;
+        int read = 0;
+        while (position < stream.length) {
+            int size = Math.min(readSizes[Math.min(read++, readSizes.length - 1)], stream.length - position);
+            //a fresh buffer per read, like the pooled read buffer that goes back after every read
+            ByteBuffer in = ByteBuffer.allocate(size + 8);
+            in.position(3);
+            in.put(stream, position, size);
+            in.flip();
+            in.position(3);
+            pipeline.read(in);
+            position += size;
+        }
+        return frames;
+    }
+
+    private static byte[] encode(FrameEncoder encoder, List<String> payloads) {
+        ByteBuffer out = ByteBuffer.allocate(4096);
+        for (String payload : payloads) {
+            encoder.encode(ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)), out);
+        }
+        out.flip();
+        byte[] stream = new byte[out.remaining()];
+        out.get(stream);
+        return stream;
+    }
+
+    @Test
+    public void lengthFramesMergedInOneRead() throws IOException {
+        byte[] stream = encode(new LengthFieldCodec(1024), PAYLOADS);
+        assertEquals(PAYLOADS, decode(new LengthFieldCodec(1024), stream, stream.length));
+    }
+
+    @Test
+    public void lengthFramesSplitAtEveryByte() throws IOException {
+        byte[] stream = encode(new LengthFieldCodec(1024), PAYLOADS);
+        assertEquals(PAYLOADS, decode(new LengthFieldCodec(1024), stream, 1));
+    }
+
+    @Test
+    public void lengthFramesSplitAtRandom() throws IOException {
+        List<String> payloads = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            payloads.add(PAYLOADS.get(i % PAYLOADS.size()) + i);
+        }
+        byte[] stream = encode(new LengthFieldCodec(1024), payloads);
+        Random random = new Random(1);
+        int[] sizes = new int[stream.length];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = 1 + random.nextInt(60);
+        }
+        assertEquals(payloads, decode(new LengthFieldCodec(1024), stream, sizes));
+    }
+
+    @Test
+    public void delimiterSplitInsideTheDelimiter() throws IOException {
+        byte[] crlf = {'\r', '\n'};
+        byte[] stream = encode(new DelimiterCodec(1024, crlf), PAYLOADS);
+        //"hello\r" then "\n..." puts the cut between the two delimiter bytes
+        assertEquals(PAYLOADS, decode(new DelimiterCodec(1024, crlf), stream, 6, 3));
+    }
+
+    @Test
+    public void fixedFramesMergedAndSplit() throws IOException {
+        List<String> payloads = Arrays.asList("abcd", "efgh", "ijkl", "mnop");
+        byte[] stream = encode(new FixedLengthCodec(4), payloads);
+        assertEquals(payloads, decode(new FixedLengthCodec(4), stream, 6, 7, 3));
+    }
+
+    @Test(expected = IOException.class)
+    public void frameLongerThanTheMaximum() throws IOException {
+        byte[] stream = encode(new LengthFieldCodec(1024), Arrays.asList("0123456789"));
+        decode(new LengthFieldCodec(8), stream, 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void lineWithoutDelimiterLongerThanTheMaximum() throws IOException {
+        decode(new DelimiterCodec(8, new byte[] {'\n'}), "0123456789abcdef".getBytes(StandardCharsets.UTF_8), 4);
+    }
+}
@@ -0,0 +1,15 @@
+package com.rookieInn.nio.socketApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder side of a codec, turns an outgoing payload into a frame.
+ */
+public interface FrameEncoder {
+
+    //bytes the encoded frame of this payload needs
+    int encodedLength(ByteBuffer payload);
+
+    //write the frame of payload into out, payload is consumed
+    void encode(ByteBuffer payload, ByteBuffer out);
+}
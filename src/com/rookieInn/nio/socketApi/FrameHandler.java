@@ -0,0 +1,15 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * User code that runs for every decoded frame.
+ *
+ *  The frame buffer is only valid during the call, it is a window on the connection's read buffer,
+ *  so copy whatever has to outlive it. Replies go through pipeline.write(), which encodes them.
+ */
+public interface FrameHandler {
+
+    void frameReceived(FramePipeline pipeline, ByteBuffer frame) throws IOException;
+}
@@ -0,0 +1,59 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * decoder -> handler -> encoder chain of one connection.
+ *
+ *  read() feeds the bytes of a read to the decoder, each frame goes to the handler,
+ *  and write() encodes a reply into a pooled buffer and hands it to the connection's write queue.
+ *  The owner says where buffers come from and where encoded frames go by implementing
+ *  allocate() and send(). writeFile() queues a file range behind the frames written so far,
+ *  its bytes skip the encoder and go to the socket as they are.
+ */
+public abstract class FramePipeline {
+
+    private final FrameDecoder decoder;
+    private final FrameEncoder encoder;
+    private final FrameHandler handler;
+
+    public FramePipeline(FrameDecoder decoder, FrameEncoder encoder, FrameHandler handler) {
+        this.decoder = decoder;
+        this.encoder = encoder;
+        this.handler = handler;
+    }
+
+    public void read(ByteBuffer in) throws IOException {
+        decoder.decode(in, this);
+    }
+
+    void fireFrame(ByteBuffer frame) throws IOException {
+        handler.frameReceived(this, frame);
+    }
+
+    public void write(ByteBuffer payload) throws IOException {
+        PooledBuffer encoded = allocate(encoder.encodedLength(payload));
+        try {
+            encoder.encode(payload, encoded.buffer());
+        } catch (RuntimeException e) {
+            encoded.release();
+            throw e;
+        }
+        encoded.buffer().flip();
+        send(encoded);
+    }
+
+    public void writeFile(FileRegion region) throws IOException {
+        sendFile(region);
+    }
+
+    //a cleared buffer of at least capacity bytes
+    protected abstract PooledBuffer allocate(int capacity);
+
+    //queue the encoded frame for writing, the callee takes over the reference
+    protected abstract void send(PooledBuffer encoded) throws IOException;
+
+    //queue the file range for writing, the callee closes it when done
+    protected abstract void sendFile(FileRegion region) throws IOException;
+}
@@ -0,0 +1,120 @@
+package com.rookieInn.nio.socketApi;
+
+import java.util.Arrays;
+
+/**
+ * Latency histogram in the style of HdrHistogram, with a fixed relative precision.
+ *
+ *  Values below 128 get a bucket each, above that every power of two is split into 64 linear sub-buckets,
+ *  so a recorded value is off by at most 1/64 (~1.6%) whatever its magnitude, and the whole range of a long
+ *  fits in under 4000 counters. record() is one array increment, nothing is allocated.
+ *
+ *  Not thread safe: keep one histogram per thread and add() them together at the end.
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR = 128;
+    private static final int SUB_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long[] counts = new long[LINEAR + (64 - SUB_BITS) * SUB_BUCKETS];
+    private long total = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long count() {
+        return total;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public long min() {
+        return total == 0 ? 0 : min;
+    }
+
+    public double mean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    //the highest value equivalent to the one at the given percentile (0..100)
+    public long percentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalent(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        //value >>> shift lands in [SUB_BUCKETS, 2 * SUB_BUCKETS)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR + (shift - 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long highestEquivalent(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long top = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    //percentile table, values divided by unit (e.g. 1000 to print nanoseconds as microseconds)
+    public String format(String unitName, double unit) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("latency (%s): count=%d min=%.1f mean=%.1f max=%.1f%n", unitName, total, min() / unit, mean() / unit, max / unit));
+        double[] percentiles = {50, 90, 99, 99.9, 99.99};
+        for (double p : percentiles) {
+            builder.append(String.format("  p%-6s %12.1f%n", p, percentile(p) / unit));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,89 @@
+package com.rookieInn.nio.socketApi;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Percentiles of LatencyHistogram: exact below 128, within 1/64 above, over the whole range of a long.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 100; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100, histogram.count());
+        assertEquals(0, histogram.min());
+        assertEquals(99, histogram.max());
+        assertEquals(49, histogram.percentile(50));
+        assertEquals(89, histogram.percentile(90));
+        assertEquals(99, histogram.percentile(100));
+        assertEquals(49.5, histogram.mean(), 1e-9);
+    }
+
+    @Test
+    public void largeValuesStayWithinPrecision() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            long value = Math.max(128, (random.nextLong() >>> 1) >>> random.nextInt(63));
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            //so max() does not cap the answer
+            histogram.record(Long.MAX_VALUE);
+            //the reported value is never below the recorded one and at most 1/64 above it
+            long reported = histogram.percentile(50);
+            assertTrue(value + " reported as " + reported, reported >= value && reported - value <= value / 64);
+        }
+    }
+
+    @Test
+    public void percentilesOfAUniformSpread() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        double[] percentiles = {50, 90, 99, 99.9};
+        for (double p : percentiles) {
+            long exact = (long) (p / 100 * 100000);
+            long reported = histogram.percentile(p);
+            assertTrue("p" + p + " reported as " + reported, reported >= exact && reported - exact <= exact / 64);
+        }
+        assertEquals(100000, histogram.percentile(100));
+    }
+
+    @Test
+    public void extremesAndNegatives() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.min());
+        assertEquals(Long.MAX_VALUE, histogram.max());
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.percentile(100));
+    }
+
+    @Test
+    public void addMergesPerThreadHistograms() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        for (long value = 1; value <= 50; value++) {
+            a.record(value);
+            b.record(value + 50);
+        }
+        a.add(b);
+        assertEquals(100, a.count());
+        assertEquals(1, a.min());
+        assertEquals(100, a.max());
+        assertEquals(50, a.percentile(50));
+
+        a.reset();
+        assertEquals(0, a.count());
+        assertEquals(0, a.percentile(99));
+    }
+}
@@ -0,0 +1,49 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frames prefixed by their content length as a 4 byte big-endian int.
+ */
+public class LengthFieldCodec extends FrameDecoder implements FrameEncoder {
+
+    private static final int HEADER = 4;
+
+    public LengthFieldCodec(int maxFrameLength) {
+        super(maxFrameLength);
+    }
+
+    @Override
+    protected int frameLength(ByteBuffer in) throws IOException {
+        if (in.remaining() < HEADER) {
+            return -1;
+        }
+        int length = in.getInt(in.position());
+        if (length < 0 || length > Integer.MAX_VALUE - HEADER) {
+            throw new IOException("Bad frame length: " + length);
+        }
+        return HEADER + length;
+    }
+
+    @Override
+    protected int headerLength() {
+        return HEADER;
+    }
+
+    @Override
+    protected int trailerLength() {
+        return 0;
+    }
+
+    @Override
+    public int encodedLength(ByteBuffer payload) {
+        return HEADER + payload.remaining();
+    }
+
+    @Override
+    public void encode(ByteBuffer payload, ByteBuffer out) {
+        out.putInt(payload.remaining());
+        out.put(payload);
+    }
+}
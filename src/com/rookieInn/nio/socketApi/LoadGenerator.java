@@ -0,0 +1,347 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Load generator for the echo servers, the non-blocking client grown into a benchmarking tool.
+ *
+ *  K connections are spread over a few threads, each thread runs its own selector loop like
+ *  NonBlockingTcpClient. The server has to echo every byte, a response is complete once messageSize bytes
+ *  came back, and since the echo keeps the order the send time of every message waits in a FIFO.
+ *
+ *  closed loop (rate 0): every connection keeps `pipeline` messages in flight and sends the next one as soon
+ *      as a response completes, the throughput is whatever the server sustains.
+ *  open loop (rate > 0): every connection sends on a fixed schedule, rate / connections messages per second,
+ *      whether responses come back or not. Latency is measured from the time a message was due, not from
+ *      when it was written, so a stalled server shows up in the percentiles instead of slowing the client
+ *      down (coordinated omission). `pipeline` is ignored.
+ *
+ *  usage: LoadGenerator <port> [connections] [threads] [seconds] [messageSize] [pipeline] [rate] [greetingBytes]
+ *      NonBlockingTcpServer    ->  LoadGenerator 5555 100 2 10 128 1 0 7        (skips the "Hello!\n" greeting)
+ *      BlockingTcpServer       ->  LoadGenerator 8888 1000 4 10 128 4 50000
+ *  -Dload.host=127.0.0.1 -Dload.warmup=1 (seconds not recorded before the measurement starts)
+ */
+public class LoadGenerator {
+
+    private static final int PAYLOAD_SIZE = 64 * 1024;
+
+    /**
+     * Send times of the messages in flight, a growable ring of longs.
+     */
+    static class SendTimes {
+        private long[] times = new long[16];
+        private int head = 0;
+        private int size = 0;
+
+        void add(long time) {
+            if (size == times.length) {
+                long[] grown = new long[times.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = times[(head + i) & (times.length - 1)];
+                }
+                times = grown;
+                head = 0;
+            }
+            times[(head + size) & (times.length - 1)] = time;
+            size++;
+        }
+
+        long poll() {
+            if (size == 0) {
+                throw new IllegalStateException("No message in flight");
+            }
+            long time = times[head];
+            head = (head + 1) & (times.length - 1);
+            size--;
+            return time;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    static class Connection {
+        final SocketChannel channel;
+        final SendTimes inFlight = new SendTimes();
+        SelectionKey key;
+        int greetingRemaining;
+        int responseRemaining;
+        long bytesToWrite = 0;
+        //written and not echoed yet, an echo can never be more than that
+        long unanswered = 0;
+        long nextSend;
+
+        Connection(SocketChannel channel, int greetingBytes, int messageSize) {
+            this.channel = channel;
+            this.greetingRemaining = greetingBytes;
+            this.responseRemaining = messageSize;
+        }
+    }
+
+    /**
+     * One selector thread and the connections it drives.
+     */
+    static class Worker implements Runnable {
+        private final Selector selector;
+        private final List<Connection> connections = new ArrayList<>();
+        private final ByteBuffer payload = ByteBuffer.allocateDirect(PAYLOAD_SIZE);
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(PAYLOAD_SIZE);
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private final int messageSize;
+        private final int pipeline;
+        private final long intervalNanos;
+        private final long recordFrom;
+        private final long deadline;
+
+        private long responses = 0;
+        private long errors = 0;
+        private long protocolErrors = 0;
+
+        Worker(int messageSize, int pipeline, long intervalNanos, long recordFrom, long deadline) throws IOException {
+            this.selector = Selector.open();
+            this.messageSize = messageSize;
+            this.pipeline = pipeline;
+            this.intervalNanos = intervalNanos;
+            this.recordFrom = recordFrom;
+            this.deadline = deadline;
+            while (payload.hasRemaining()) {
+                payload.put((byte) ('a' + payload.position() % 26));
+            }
+        }
+
+        void connect(InetSocketAddress address, int greetingBytes, long firstSend) throws IOException {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel, greetingBytes, messageSize);
+            connection.nextSend = firstSend;
+            connection.key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            channel.connect(address);
+            connections.add(connection);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    if (now >= deadline) {
+                        break;
+                    }
+                    long wait = intervalNanos > 0 ? sendDue(now) : deadline - now;
+                    long millis = wait / 1000000;
+                    if (millis > 0) {
+                        selector.select(Math.min(millis, (deadline - now) / 1000000 + 1));
+                    } else {
+                        selector.selectNow();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isConnectable()) {
+                                connected(connection);
+                            } else {
+                                if (key.isReadable()) {
+                                    read(connection);
+                                }
+                                if (key.isValid() && key.isWritable()) {
+                                    write(connection);
+                                }
+                            }
+                        } catch (IOException e) {
+                            errors++;
+                            key.cancel();
+                            connection.channel.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println(e);
+            } finally {
+                for (Connection connection : connections) {
+                    try {
+                        connection.channel.close();
+                    } catch (IOException e) {
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        private void connected(Connection connection) throws IOException {
+            connection.channel.finishConnect();
+            connection.key.interestOps(SelectionKey.OP_READ);
+            if (intervalNanos == 0) {
+                long now = System.nanoTime();
+                for (int i = 0; i < pipeline; i++) {
+                    send(connection, now);
+                }
+                write(connection);
+            }
+        }
+
+        //open loop: queue every message that is due, return nanoseconds until the next one
+        private long sendDue(long now) {
+            long next = Long.MAX_VALUE;
+            for (Connection connection : connections) {
+                if (!connection.key.isValid() || (connection.key.interestOps() & SelectionKey.OP_CONNECT) != 0) {
+                    continue;
+                }
+                boolean queued = false;
+                while (connection.nextSend <= now) {
+                    send(connection, connection.nextSend);
+                    connection.nextSend += intervalNanos;
+                    queued = true;
+                }
+                if (queued) {
+                    try {
+                        write(connection);
+                    } catch (IOException e) {
+                        errors++;
+                        connection.key.cancel();
+                    }
+                }
+                next = Math.min(next, connection.nextSend - now);
+            }
+            return next == Long.MAX_VALUE ? 1000000 : next;
+        }
+
+        private void send(Connection connection, long intendedTime) {
+            connection.inFlight.add(intendedTime);
+            connection.bytesToWrite += messageSize;
+        }
+
+        //write from the shared payload, every message has the same content
+        private void write(Connection connection) throws IOException {
+            while (connection.bytesToWrite > 0) {
+                payload.clear();
+                payload.limit((int) Math.min(PAYLOAD_SIZE, connection.bytesToWrite));
+                int written = connection.channel.write(payload);
+                connection.bytesToWrite -= written;
+                connection.unanswered += written;
+                if (payload.hasRemaining()) {
+                    break;
+                }
+            }
+            int ops = connection.bytesToWrite > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (connection.key.interestOps() != ops) {
+                connection.key.interestOps(ops);
+            }
+        }
+
+        private void read(Connection connection) throws IOException {
+            readBuffer.clear();
+            int read = connection.channel.read(readBuffer);
+            if (read == -1) {
+                throw new IOException("Connection closed by the server");
+            }
+
+            int skip = Math.min(read, connection.greetingRemaining);
+            connection.greetingRemaining -= skip;
+            read -= skip;
+
+            if (read > connection.unanswered) {
+                //the server echoed more than was written, the responses of this connection cannot be matched any more
+                protocolErrors++;
+                throw new IOException("Server echoed " + read + " bytes, " + connection.unanswered + " were written");
+            }
+            connection.unanswered -= read;
+
+            long now = System.nanoTime();
+            boolean more = false;
+            while (read > 0) {
+                int used = Math.min(read, connection.responseRemaining);
+                read -= used;
+                connection.responseRemaining -= used;
+                if (connection.responseRemaining == 0) {
+                    connection.responseRemaining = messageSize;
+                    long sendTime = connection.inFlight.poll();
+                    if (sendTime >= recordFrom) {
+                        histogram.record(now - sendTime);
+                        responses++;
+                    }
+                    if (intervalNanos == 0 && now < deadline) {
+                        send(connection, now);
+                        more = true;
+                    }
+                }
+            }
+            if (more) {
+                write(connection);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final String IP = System.getProperty("load.host", "127.0.0.1");
+        final int port = Integer.parseInt(args[0]);
+        final int connections = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        final int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        final int messageSize = args.length > 4 ? Integer.parseInt(args[4]) : 128;
+        final int pipeline = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+        final long rate = args.length > 6 ? Long.parseLong(args[6]) : 0;
+        final int greetingBytes = args.length > 7 ? Integer.parseInt(args[7]) : 0;
+        final int warmup = Integer.getInteger("load.warmup", 1);
+
+        //every connection sends every intervalNanos in open loop mode
+        long intervalNanos = rate > 0 ? Math.max(1, connections * 1000000000L / rate) : 0;
+        long start = System.nanoTime() + 500 * 1000000L;
+        long recordFrom = start + warmup * 1000000000L;
+        long deadline = recordFrom + seconds * 1000000000L;
+
+        InetSocketAddress address = new InetSocketAddress(IP, port);
+        Worker[] workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(messageSize, pipeline, intervalNanos, recordFrom, deadline);
+        }
+        for (int i = 0; i < connections; i++) {
+            //spread the first sends over one interval so the connections do not fire together
+            workers[i % threads].connect(address, greetingBytes, start + (intervalNanos * i) / connections);
+        }
+
+        Thread[] running = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            running[i] = new Thread(workers[i], "load-" + i);
+            running[i].start();
+        }
+        System.out.println((rate > 0 ? "open loop, " + rate + " messages/s" : "closed loop, pipeline " + pipeline)
+                + ", " + connections + " connections on " + threads + " threads, " + messageSize + " byte messages");
+        for (Thread thread : running) {
+            thread.join();
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        long responses = 0;
+        long errors = 0;
+        long protocolErrors = 0;
+        for (Worker worker : workers) {
+            histogram.add(worker.histogram);
+            responses += worker.responses;
+            errors += worker.errors;
+            protocolErrors += worker.protocolErrors;
+        }
+        System.out.println("responses/s:       " + responses / seconds + (rate > 0 ? " (target " + rate + ")" : ""));
+        System.out.println("echoed MB/s:       " + String.format("%.2f", responses * (double) messageSize / seconds / (1024 * 1024)));
+        System.out.println("failed connections: " + errors + (protocolErrors > 0 ? " (" + protocolErrors + " echoed more than was sent)" : ""));
+        System.out.print(histogram.format("us", 1000));
+    }
+}
@@ -0,0 +1,49 @@
+package com.rookieInn.nio.socketApi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * The FIFO of send times in LoadGenerator keeps its order while it grows and refuses to poll when empty.
+ */
+public class LoadGeneratorTest {
+
+    @Test
+    public void sendTimesKeepTheirOrderWhileGrowing() {
+        LoadGenerator.SendTimes times = new LoadGenerator.SendTimes();
+        long next = 0;
+        //wrap around the ring before it has to grow
+        for (int i = 0; i < 10; i++) {
+            times.add(i);
+        }
+        for (int i = 0; i < 7; i++) {
+            assertEquals(next++, times.poll());
+        }
+        for (int i = 10; i < 100; i++) {
+            times.add(i);
+        }
+        assertEquals(93, times.size());
+        while (times.size() > 0) {
+            assertEquals(next++, times.poll());
+        }
+        assertEquals(100, next);
+    }
+
+    @Test
+    public void pollWithNothingInFlightFails() {
+        LoadGenerator.SendTimes times = new LoadGenerator.SendTimes();
+        times.add(42);
+        assertEquals(42, times.poll());
+        try {
+            times.poll();
+            fail("polled an empty FIFO");
+        } catch (IllegalStateException e) {
+            assertEquals(0, times.size());
+        }
+        //an empty poll leaves the FIFO usable
+        times.add(7);
+        assertEquals(7, times.poll());
+    }
+}
@@ -10,18 +10,28 @@ import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Random;
 import java.util.Set;
 
 /**
+ *  "NonBlockingTcpClient load <port> ..." runs LoadGenerator instead, the same selector loop driving many
+ *  connections at a target rate, see LoadGenerator for the arguments.
+ *
  * Created by gxy on 2016/6/28.
  */
 public class NonBlockingTcpClient {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && "load".equals(args[0])) {
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         final int DEFAULT_PORT = 5555;
         final String IP = "127.0.0.1";
+        final long IDLE_TIMEOUT = 30 * 1000;
 
         ByteBuffer buffer = ByteBuffer.allocateDirect(2 * 1024);
         ByteBuffer randomBuffer;
@@ -75,7 +85,17 @@ public class NonBlockingTcpClient {
                                 }
 
                                 //read/wrote from/to server
-                                while (keySocketChannel.read(buffer) != -1) {
+                                long lastRead = System.nanoTime();
+                                int numRead;
+                                while ((numRead = keySocketChannel.read(buffer)) != -1) {
+                                    //give up on a server that stopped answering
+                                    if (numRead > 0) {
+                                        lastRead = System.nanoTime();
+                                    } else if ((System.nanoTime() - lastRead) / 1000000 >= IDLE_TIMEOUT) {
+                                        System.out.println("No data from the server for " + IDLE_TIMEOUT + " ms, close the socket channel!");
+                                        break;
+                                    }
+
                                     buffer.flip();
 
                                     charBuffer = decoder.decode(buffer);
@@ -4,19 +4,147 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Echo server built on Selector.
+ *
+ *  The server can run in two modes:
+ *      single reactor: one Selector thread accepts, reads and writes for every connection (workerCount = 0)
+ *      boss/worker reactors: the main thread only accepts, then every accepted SocketChannel is handed
+ *      to one of N worker Selectors, each one running its own select loop on its own thread.
+ *      Workers are picked round-robin, or by the lowest number of open connections (leastLoaded).
+ *
+ *  Every reactor owns a BufferPool of direct buffers: a read lands in a pooled buffer, that same buffer is
+ *  queued for the echo and goes back to the pool once it was written, so no byte[] copy is made per read.
+ *  Queued buffers live in the OutboundQueue of the Connection attached to the SelectionKey, they are flushed with gathering
+ *  writes and OP_WRITE interest is only dropped once that queue is empty.
+ *
+ *  Backpressure: once a connection has more than highWatermark bytes queued the server stops OP_READ on
+ *  its key, reading resumes when the queue drains below lowWatermark. All reactors also share a memory
+ *  budget, when the bytes queued server-wide go over it the connections with the biggest queues are closed.
+ *  The reactor that crosses the budget picks the victims among the connections of every reactor in one scan
+ *  and hands each of them to its own reactor, which closes it on its own thread.
+ *      -Dnio.lowWatermark=32768 -Dnio.highWatermark=65536 -Dnio.memoryBudget=67108864
+ *
+ *  Timeouts: every connection sits in the TimerWheel of its reactor and is closed when it saw no read
+ *  (readTimeout), no write progress while data is queued (writeTimeout) or neither (idleTimeout).
+ *  Reads and writes only update timestamps, the connection is checked and rescheduled when its timeout
+ *  fires, and the select(timeout) of each loop comes from the wheel's next deadline. 0 disables a timeout.
+ *      -Dnio.idleTimeout=300000 -Dnio.readTimeout=0 -Dnio.writeTimeout=30000
+ *
+ *  Framing: by default (raw) every read is echoed as it is. With a codec, reads go through the connection's
+ *  FramePipeline instead, the decoder cuts the stream into frames, every frame goes to the FrameHandler
+ *  (echo unless setFrameHandler() says otherwise) and replies are encoded by the same codec.
+ *      -Dnio.codec=raw | length | line | fixed:<frameLength>   -Dnio.maxFrameLength=65536
+ *  The payload of every read is only printed with -Dnio.verbose=true.
+ *
+ *  File serving: with -Dnio.fileRoot=<dir> the server answers "GET <path>" lines with the files below dir
+ *  (see StaticFileHandler). Files are queued as FileRegions and sent with FileChannel.transferTo(),
+ *  so the kernel copies them straight to the socket. A region holds an open file instead of memory, so it
+ *  is not counted against the watermarks or the budget; instead reading stops while a connection has
+ *  MAX_FILE_REGIONS files queued, the requests of one read can open at most that read's worth more.
+ *
+ *  usage: NonBlockingTcpServer [workerCount] [round-robin | least-loaded]
+ *  workerCount defaults to the number of available processors.
+ *
  * Created by gxy on 2016/6/28.
  */
 public class NonBlockingTcpServer {
 
-    private Map<SocketChannel, List<byte[]>> keepDataTrack = new HashMap<>();
-    private ByteBuffer buffer = ByteBuffer.allocate(2 * 1024);
+    private static final int READ_BUFFER_SIZE = 2 * 1024;
+    private static final int MAX_FILE_REGIONS = 8;
+    private static final ByteBuffer HELLO = ByteBuffer.wrap("Hello!\n".getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+
+    //what the server did before it knew about frames, send every frame back
+    private static final FrameHandler ECHO = new FrameHandler() {
+        @Override
+        public void frameReceived(FramePipeline pipeline, ByteBuffer frame) throws IOException {
+            pipeline.write(frame);
+        }
+    };
+
+    private final int workerCount;
+    private final boolean leastLoaded;
+
+    private int lowWatermark = 32 * 1024;
+    private int highWatermark = 64 * 1024;
+    private long memoryBudget = 64 * 1024 * 1024;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Set<Connection> liveConnections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+    private final AtomicBoolean shedding = new AtomicBoolean();
+    //bytes of the connections picked for shedding that their reactors did not close yet
+    private final AtomicLong sheddingBytes = new AtomicLong();
+
+    private long idleTimeout = 5 * 60 * 1000;
+    private long readTimeout = 0;
+    private long writeTimeout = 30 * 1000;
+
+    private String codec = "raw";
+    private int maxFrameLength = 64 * 1024;
+    private FrameHandler frameHandler = ECHO;
+    private boolean verbose = false;
+
+    private Reactor boss;
+    private Reactor[] workers;
+    private int nextWorker = 0;
+
+    public NonBlockingTcpServer(int workerCount, boolean leastLoaded) {
+        this.workerCount = workerCount;
+        this.leastLoaded = leastLoaded;
+    }
+
+    public void setWriteWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("lowWatermark must be between 0 and highWatermark");
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    //timeouts in milliseconds, 0 disables the corresponding check
+    public void setTimeouts(long idleTimeout, long readTimeout, long writeTimeout) {
+        this.idleTimeout = idleTimeout;
+        this.readTimeout = readTimeout;
+        this.writeTimeout = writeTimeout;
+    }
+
+    //raw, length, line or fixed:<frameLength>
+    public void setCodec(String codec, int maxFrameLength) {
+        if (!codec.equals("raw") && !codec.equals("length") && !codec.equals("line") && !codec.startsWith("fixed:")) {
+            throw new IllegalArgumentException("Unknown codec: " + codec);
+        }
+        this.codec = codec;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public void setFrameHandler(FrameHandler frameHandler) {
+        this.frameHandler = frameHandler;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
 
     private void startEchoServer() {
         final int DEFAULT_PORT = 5555;
@@ -40,18 +168,264 @@ public class NonBlockingTcpServer {
                 //register the current channel with the given selector
                 serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
 
+                //start the worker reactors, each one with its own selector and thread
+                boss = new Reactor(selector);
+                workers = new Reactor[workerCount];
+                for (int i = 0; i < workerCount; i++) {
+                    workers[i] = new Reactor(Selector.open());
+                    Thread thread = new Thread(workers[i], "reactor-worker-" + i);
+                    workers[i].thread = thread;
+                    thread.start();
+                }
+
                 //display a waiting message while ... waiting!
-                System.out.println("Waiting for connections ...");
+                System.out.println("Waiting for connections ... (" + workerCount + " worker reactors)");
 
-                while (true) {
-                    //wait for incoming events
-                    selector.select();
+                //the current thread becomes the boss reactor
+                boss.thread = Thread.currentThread();
+                boss.run();
+            } else {
+                System.out.println("The server socket channel or selector cannot be opened!");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (workers != null) {
+                for (Reactor worker : workers) {
+                    if (worker != null) {
+                        worker.shutdown();
+                    }
+                }
+            }
+        }
+    }
+
+    //isAcceptable returned true
+    private void acceptOP(SelectionKey key) throws IOException {
+        ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+        SocketChannel socketChannel = serverChannel.accept();
+        if (socketChannel == null) {
+            return;
+        }
+        socketChannel.configureBlocking(false);
+
+        //hand the connection to a worker, or keep it on the boss in single reactor mode
+        nextReactor().assign(socketChannel);
+    }
+
+    private Reactor nextReactor() {
+        if (workers.length == 0) {
+            return boss;
+        }
+        if (leastLoaded) {
+            Reactor candidate = workers[0];
+            for (int i = 1; i < workers.length; i++) {
+                if (workers[i].connections.get() < candidate.connections.get()) {
+                    candidate = workers[i];
+                }
+            }
+            return candidate;
+        }
+        Reactor candidate = workers[nextWorker];
+        nextWorker = (nextWorker + 1) % workers.length;
+        return candidate;
+    }
+
+    /**
+     * State of one accepted connection, attached to its SelectionKey.
+     * It is also the connection's node in the reactor's TimerWheel.
+     */
+    class Connection extends TimerWheel.Timeout {
+        private final Reactor reactor;
+        private final OutboundQueue outbound = new OutboundQueue();
+        private FramePipeline pipeline;
+        private SelectionKey key;
+        private long lastRead;
+        private long lastWrite;
+        private long scheduledDeadline = -1;
+        //outbound.pendingBytes() as last seen by the reactor, read by the other reactors when they shed
+        private volatile long queued;
+        private volatile boolean shed;
+        private long shedBytes;
+        private boolean shedSettled;
+
+        Connection(Reactor reactor, long now) {
+            this.reactor = reactor;
+            this.lastRead = now;
+            this.lastWrite = now;
+        }
+
+        //earliest moment one of the enabled timeouts could fire, or -1 when all of them are disabled
+        long nextDeadline() {
+            long deadline = Long.MAX_VALUE;
+            if (readTimeout > 0) {
+                deadline = Math.min(deadline, lastRead + readTimeout);
+            }
+            if (writeTimeout > 0 && !outbound.isEmpty()) {
+                deadline = Math.min(deadline, lastWrite + writeTimeout);
+            }
+            if (idleTimeout > 0) {
+                deadline = Math.min(deadline, Math.max(lastRead, lastWrite) + idleTimeout);
+            }
+            return deadline == Long.MAX_VALUE ? -1 : deadline;
+        }
+
+        void updateQueued() {
+            queued = outbound.pendingBytes();
+        }
+
+        @Override
+        protected void expire(long now) {
+            String reason = null;
+            if (readTimeout > 0 && now - lastRead >= readTimeout) {
+                reason = "read timeout";
+            } else if (writeTimeout > 0 && !outbound.isEmpty() && now - lastWrite >= writeTimeout) {
+                reason = "write timeout";
+            } else if (idleTimeout > 0 && now - Math.max(lastRead, lastWrite) >= idleTimeout) {
+                reason = "idle timeout";
+            }
+
+            if (reason == null) {
+                //there was activity since the timeout was scheduled
+                reactor.scheduleTimeout(this);
+                return;
+            }
+            try {
+                System.out.println("Closing connection " + ((SocketChannel) key.channel()).getRemoteAddress() + ": " + reason);
+                reactor.closeOP(key);
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+    }
+
+    //a fresh codec for the connection, null in raw mode
+    private FramePipeline newPipeline(final Connection connection) {
+        if (codec.equals("raw")) {
+            return null;
+        }
+
+        FrameDecoder decoder;
+        if (codec.equals("length")) {
+            decoder = new LengthFieldCodec(maxFrameLength);
+        } else if (codec.equals("line")) {
+            decoder = new DelimiterCodec(maxFrameLength, new byte[] {'\n'});
+        } else {
+            decoder = new FixedLengthCodec(Integer.parseInt(codec.substring("fixed:".length())));
+        }
+
+        return new FramePipeline(decoder, (FrameEncoder) decoder, frameHandler) {
+            @Override
+            protected PooledBuffer allocate(int capacity) {
+                return connection.reactor.pool.acquire(capacity);
+            }
+
+            @Override
+            protected void send(PooledBuffer encoded) {
+                //the connection may have been shed while its previous frame was queued
+                if (!connection.key.isValid()) {
+                    encoded.release();
+                    return;
+                }
+                connection.reactor.queueOP(connection.key, encoded);
+            }
+
+            @Override
+            protected void sendFile(FileRegion region) {
+                if (!connection.key.isValid()) {
+                    region.close();
+                    return;
+                }
+                connection.reactor.queueOP(connection.key, region);
+            }
+        };
+    }
+
+    /**
+     * One Selector plus the thread running its loop.
+     * Every field is only touched by that thread, except pending and connections.
+     */
+    class Reactor implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> toShed = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger connections = new AtomicInteger();
+        private final BufferPool pool = new BufferPool(1024);
+        private final TimerWheel timers = new TimerWheel(100, 1024, now());
+        private Thread thread;
+
+        Reactor(Selector selector) {
+            this.selector = selector;
+        }
+
+        //called from the boss thread, the channel is registered by the reactor's own thread
+        void assign(SocketChannel socketChannel) {
+            connections.incrementAndGet();
+            pending.add(socketChannel);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        //called from any reactor, the connection is closed by this reactor's own thread
+        void shed(Connection connection) {
+            toShed.add(connection);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            } else {
+                closeShed();
+            }
+        }
+
+        private void closeShed() {
+            Connection connection;
+            while ((connection = toShed.poll()) != null) {
+                if (!connection.key.isValid()) {
+                    //closed on its own before the shed request arrived
+                    settleShed(connection);
+                    continue;
+                }
+                try {
+                    System.out.println("Memory budget exceeded, shedding connection " + ((SocketChannel) connection.key.channel()).getRemoteAddress() + " with " + connection.outbound.pendingBytes() + " queued bytes");
+                    closeOP(connection.key);
+                } catch (IOException e) {
+                    System.err.println(e);
+                }
+            }
+        }
+
+        //the bytes of a shed connection stop counting as being shed, once, on the reactor's thread
+        private void settleShed(Connection connection) {
+            if (connection.shed && !connection.shedSettled) {
+                connection.shedSettled = true;
+                sheddingBytes.addAndGet(-connection.shedBytes);
+            }
+        }
+
+        void shutdown() {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (selector.isOpen()) {
+                    //register the connections handed over by the boss
+                    registerPending();
+                    closeShed();
+
+                    //wait for incoming events, or until the next timeout is due
+                    selector.select(timers.nextTimeout(now()));
 
                     //there is something to process on selected keys
                     Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
 
                     while(keys.hasNext()) {
-                        SelectionKey key = (SelectionKey) keys.next();
+                        SelectionKey key = keys.next();
 
                         //prevent the same key from coming up again
                         keys.remove();
@@ -61,97 +435,272 @@ public class NonBlockingTcpServer {
                         }
 
                         if (key.isAcceptable()) {
-                            acceptOP(key, selector);
-                        } else if (key.isReadable()) {
+                            acceptOP(key);
+                            continue;
+                        }
+                        if (key.isReadable()) {
                             this.readOP(key);
-                        } else if (key.isWritable()) {
+                        }
+                        if (key.isValid() && key.isWritable()) {
                             this.writeOP(key);
                         }
                     }
+
+                    //close the connections whose timeouts are due
+                    timers.expire(now());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (ClosedSelectorException e) {
+                //the server is shutting down
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel socketChannel;
+            while ((socketChannel = pending.poll()) != null) {
+                try {
+                    System.out.println("Incoming connection from:" + socketChannel.getRemoteAddress());
+
+                    //write a welcome message
+                    socketChannel.write(HELLO.duplicate());
+
+                    //register channel with selector for further I/O, the connection state rides as attachment
+                    Connection connection = new Connection(this, now());
+                    connection.key = socketChannel.register(selector, SelectionKey.OP_READ, connection);
+                    connection.pipeline = newPipeline(connection);
+                    liveConnections.add(connection);
+                    scheduleTimeout(connection);
+                } catch (IOException e) {
+                    System.err.println(e);
+                    connections.decrementAndGet();
+                    try {
+                        socketChannel.close();
+                    } catch (IOException ex) {
+                        System.err.println(ex);
+                    }
                 }
+            }
+        }
+
+        void scheduleTimeout(Connection connection) {
+            long deadline = connection.nextDeadline();
+            connection.scheduledDeadline = deadline;
+            if (deadline < 0) {
+                timers.cancel(connection);
             } else {
-                System.out.println("The server socket channel or selector cannot be opened!");
+                timers.schedule(connection, deadline);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-    }
 
-    //isAcceptable returned true
-    private void acceptOP(SelectionKey key, Selector selector) throws IOException {
-        ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
-        SocketChannel socketChannel = serverChannel.accept();
-        socketChannel.configureBlocking(false);
+        //isReadable returned true
+        private void readOP(SelectionKey key) {
+            try {
+                SocketChannel socketChannel = (SocketChannel) key.channel();
+                PooledBuffer pooled = pool.acquire(READ_BUFFER_SIZE);
+                int numRead = -1;
+
+                try{
+                    numRead = socketChannel.read(pooled.buffer());
+                } catch (IOException e) {
+                    System.err.println("Cannot read error!");
+                }
 
-        System.out.println("Incoming connection from:" + socketChannel.getRemoteAddress());
+                if (numRead <= 0) {
+                    pooled.release();
+                    if (numRead == -1) {
+                        System.out.println("Connection closed by:" + socketChannel.getRemoteAddress());
+                        closeOP(key);
+                    }
+                    return;
+                }
 
-        //write a welcome message
-        socketChannel.write(ByteBuffer.wrap("Hello!\n".getBytes("UTF-8")));
+                Connection connection = (Connection) key.attachment();
+                connection.lastRead = now();
+                pooled.buffer().flip();
+                if (verbose) {
+                    System.out.println(StandardCharsets.UTF_8.decode(pooled.buffer().duplicate()) + " from " + socketChannel.getRemoteAddress());
+                }
 
-        //register channel with selector for further I/O
-        keepDataTrack.put(socketChannel, new ArrayList<byte[]>());
-        socketChannel.register(selector, SelectionKey.OP_READ);
-    }
+                if (connection.pipeline == null) {
+                    //write back to client, the write queue takes over our reference
+                    queueOP(key, pooled);
+                    return;
+                }
+
+                //decode the frames, the decoder copies what it keeps so the read buffer goes back right away
+                try {
+                    connection.pipeline.read(pooled.buffer());
+                } catch (IOException e) {
+                    System.err.println("Cannot decode from " + socketChannel.getRemoteAddress() + ": " + e.getMessage());
+                    closeOP(key);
+                } finally {
+                    pooled.release();
+                }
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
 
-    //isReadable returned true
-    private void readOP(SelectionKey key) {
-        try {
+        //isWritable return true
+        private void writeOP(SelectionKey key) {
             SocketChannel socketChannel = (SocketChannel) key.channel();
-            buffer.clear();
-            int numRead = -1;
+            Connection connection = (Connection) key.attachment();
+            OutboundQueue outbound = connection.outbound;
+
+            try {
+                long before = outbound.pendingBytes();
+                long written = outbound.bytesWritten();
+                boolean drained = outbound.flush(socketChannel);
+                queuedBytes.addAndGet(outbound.pendingBytes() - before);
+                connection.updateQueued();
+                if (outbound.bytesWritten() != written) {
+                    connection.lastWrite = now();
+                }
 
-            try{
-                numRead = socketChannel.read(buffer);
+                //keep OP_WRITE while a partially written buffer is still at the head
+                int ops = key.interestOps();
+                if (drained) {
+                    ops &= ~SelectionKey.OP_WRITE;
+                }
+                //the client caught up, resume reading
+                if ((ops & SelectionKey.OP_READ) == 0 && outbound.pendingBytes() <= lowWatermark
+                        && outbound.pendingRegions() < MAX_FILE_REGIONS) {
+                    ops |= SelectionKey.OP_READ;
+                }
+                key.interestOps(ops);
             } catch (IOException e) {
-                System.err.println("Cannot read error!");
+                System.err.println(e);
+                try {
+                    closeOP(key);
+                } catch (IOException ex) {
+                    System.err.println(ex);
+                }
             }
+        }
 
-            if (numRead == -1) {
-                this.keepDataTrack.remove(socketChannel);
-                System.out.println("Connection closed by:" + socketChannel.getRemoteAddress());
-                socketChannel.close();
-                key.cancel();
-                return;
+        //queue data for writing to the key's channel, the queue takes over the reference
+        private void queueOP(SelectionKey key, PooledBuffer data) {
+            Connection connection = (Connection) key.attachment();
+            OutboundQueue outbound = connection.outbound;
+            boolean wasEmpty = outbound.isEmpty();
+            outbound.add(data);
+            if (wasEmpty) {
+                startWriteTimeout(connection);
             }
+            long total = queuedBytes.addAndGet(data.buffer().remaining());
+            connection.updateQueued();
 
-            byte[] data = new byte[numRead];
-            System.arraycopy(buffer.array(), 0, data, 0, numRead);
-            System.out.println(new String(data, "UTF-8") + " from " + socketChannel.getRemoteAddress());
+            int ops = key.interestOps() | SelectionKey.OP_WRITE;
+            //the client does not drain its echo, stop reading from it
+            if (outbound.pendingBytes() > highWatermark) {
+                ops &= ~SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
 
-            //write back to client
-            doEchoJob(key, data);
-        } catch (IOException e) {
-            System.err.println(e);
+            if (total > memoryBudget) {
+                shedOP();
+            }
         }
-    }
 
-    //isWritable return true
-    private void writeOP(SelectionKey key) throws IOException {
-        SocketChannel socketChannel = (SocketChannel) key.channel();
+        //pick the connections of all reactors with the biggest queues until their bytes cover the excess,
+        //every one is closed by the reactor that owns it
+        private void shedOP() {
+            if (!shedding.compareAndSet(false, true)) {
+                //another reactor is choosing right now
+                return;
+            }
+            try {
+                long excess = queuedBytes.get() - sheddingBytes.get() - memoryBudget;
+                if (excess <= 0) {
+                    return;
+                }
+                List<Connection> candidates = new ArrayList<>();
+                for (Connection connection : liveConnections) {
+                    if (!connection.shed && connection.queued > 0) {
+                        candidates.add(connection);
+                    }
+                }
+                Collections.sort(candidates, new Comparator<Connection>() {
+                    @Override
+                    public int compare(Connection a, Connection b) {
+                        return Long.compare(b.queued, a.queued);
+                    }
+                });
+                for (Connection victim : candidates) {
+                    if (excess <= 0) {
+                        break;
+                    }
+                    victim.shedBytes = victim.queued;
+                    excess -= victim.shedBytes;
+                    sheddingBytes.addAndGet(victim.shedBytes);
+                    victim.shed = true;
+                    victim.reactor.shed(victim);
+                }
+            } finally {
+                shedding.set(false);
+            }
+        }
 
-        List<byte[]> channelData = keepDataTrack.get(socketChannel);
-        Iterator<byte[]> its = channelData.iterator();
+        //queue a file range behind the buffers already waiting, it is sent with transferTo()
+        private void queueOP(SelectionKey key, FileRegion region) {
+            Connection connection = (Connection) key.attachment();
+            OutboundQueue outbound = connection.outbound;
+            boolean wasEmpty = outbound.isEmpty();
+            outbound.add(region);
+            if (wasEmpty) {
+                startWriteTimeout(connection);
+            }
 
-        while (its.hasNext()) {
-            byte[] it = its.next();
-            its.remove();
-            socketChannel.write(ByteBuffer.wrap(it));
+            int ops = key.interestOps() | SelectionKey.OP_WRITE;
+            //every region keeps a file open until the client took it, stop asking for more
+            if (outbound.pendingRegions() >= MAX_FILE_REGIONS) {
+                ops &= ~SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
         }
 
-        key.interestOps(SelectionKey.OP_READ);
-    }
-
-    private void doEchoJob(SelectionKey key, byte[] data) {
-        SocketChannel socketChannel = (SocketChannel) key.channel();
-        List<byte[]> channelData = keepDataTrack.get(socketChannel);
-        channelData.add(data);
+        //the write timeout counts from the moment data starts waiting
+        private void startWriteTimeout(Connection connection) {
+            connection.lastWrite = now();
+            if (writeTimeout > 0 && (connection.scheduledDeadline < 0 || connection.nextDeadline() < connection.scheduledDeadline)) {
+                scheduleTimeout(connection);
+            }
+        }
 
-        key.interestOps(SelectionKey.OP_WRITE);
+        //release everything still queued for the channel, then close it
+        private void closeOP(SelectionKey key) throws IOException {
+            SocketChannel socketChannel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            if (connection != null) {
+                timers.cancel(connection);
+                liveConnections.remove(connection);
+                settleShed(connection);
+                queuedBytes.addAndGet(-connection.outbound.pendingBytes());
+                connection.outbound.clear();
+                connection.updateQueued();
+            }
+            connections.decrementAndGet();
+            key.cancel();
+            socketChannel.close();
+        }
     }
 
-    public static void main(String[] args) {
-        NonBlockingTcpServer server = new NonBlockingTcpServer();
+    public static void main(String[] args) throws IOException {
+        int workerCount = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        boolean leastLoaded = args.length > 1 && "least-loaded".equals(args[1]);
+
+        NonBlockingTcpServer server = new NonBlockingTcpServer(workerCount, leastLoaded);
+        server.setWriteWatermarks(Integer.getInteger("nio.lowWatermark", 32 * 1024), Integer.getInteger("nio.highWatermark", 64 * 1024));
+        server.setMemoryBudget(Long.getLong("nio.memoryBudget", 64 * 1024 * 1024));
+        server.setCodec(System.getProperty("nio.codec", "raw"), Integer.getInteger("nio.maxFrameLength", 64 * 1024));
+        server.setVerbose(Boolean.getBoolean("nio.verbose"));
+        if (System.getProperty("nio.fileRoot") != null) {
+            server.setCodec("line", 4 * 1024);
+            server.setFrameHandler(new StaticFileHandler(Paths.get(System.getProperty("nio.fileRoot"))));
+        }
+        server.setTimeouts(Long.getLong("nio.idleTimeout", 5 * 60 * 1000), Long.getLong("nio.readTimeout", 0), Long.getLong("nio.writeTimeout", 30 * 1000));
         server.startEchoServer();
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,125 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Per-connection queue of pooled buffers waiting to be written.
+ *
+ *  flush() hands up to MAX_GATHER buffers to a single GatheringByteChannel.write(ByteBuffer[]) call,
+ *  so one syscall drains many queued chunks. Buffers that were fully written go back to the pool,
+ *  a partially written buffer stays at the head with its position, and the next flush resumes from there.
+ *
+ *  FileRegions can be queued between buffers, they are sent in order with FileChannel.transferTo().
+ *  pendingBytes() only counts queued buffers, since a file region holds no memory, it holds an open file
+ *  instead and pendingRegions() counts those.
+ */
+public class OutboundQueue {
+
+    private static final int MAX_GATHER = 64;
+
+    //PooledBuffer or FileRegion
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private long pendingBytes = 0;
+    private int pendingRegions = 0;
+    private long bytesWritten = 0;
+
+    //the queue takes over the caller's reference
+    public void add(PooledBuffer data) {
+        queue.add(data);
+        pendingBytes += data.buffer().remaining();
+    }
+
+    //the queue takes over the region and closes its file when done
+    public void add(FileRegion region) {
+        queue.add(region);
+        pendingRegions++;
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public long pendingBytes() {
+        return pendingBytes;
+    }
+
+    public int pendingRegions() {
+        return pendingRegions;
+    }
+
+    //bytes written by flush() so far, buffers and file regions together
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    //write as much as the channel accepts, return true once the queue is empty
+    public boolean flush(GatheringByteChannel channel) throws IOException {
+        while (!queue.isEmpty()) {
+            if (queue.peek() instanceof FileRegion) {
+                FileRegion region = (FileRegion) queue.peek();
+                bytesWritten += region.transferTo(channel);
+                if (!region.isDone()) {
+                    return false;
+                }
+                queue.poll();
+                pendingRegions--;
+                region.close();
+                continue;
+            }
+
+            //gather the buffers up to the next file region
+            int count = 0;
+            long gathered = 0;
+            Iterator<Object> its = queue.iterator();
+            while (its.hasNext() && count < MAX_GATHER) {
+                Object next = its.next();
+                if (!(next instanceof PooledBuffer)) {
+                    break;
+                }
+                ByteBuffer buffer = ((PooledBuffer) next).buffer();
+                gathered += buffer.remaining();
+                gather[count++] = buffer;
+            }
+
+            long written;
+            try {
+                written = channel.write(gather, 0, count);
+            } finally {
+                Arrays.fill(gather, 0, count, null);
+            }
+            pendingBytes -= written;
+            bytesWritten += written;
+
+            //drop the buffers that were written completely
+            while (queue.peek() instanceof PooledBuffer && !((PooledBuffer) queue.peek()).buffer().hasRemaining()) {
+                ((PooledBuffer) queue.poll()).release();
+            }
+
+            //short write, the socket send buffer is full so wait for the next OP_WRITE
+            if (written < gathered) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //give every queued buffer back to the pool and close the files, used when the connection goes away
+    public void clear() {
+        Object it;
+        while ((it = queue.poll()) != null) {
+            if (it instanceof PooledBuffer) {
+                ((PooledBuffer) it).release();
+            } else {
+                ((FileRegion) it).close();
+            }
+        }
+        pendingBytes = 0;
+        pendingRegions = 0;
+    }
+}
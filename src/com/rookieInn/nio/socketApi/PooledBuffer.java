@@ -0,0 +1,58 @@
+package com.rookieInn.nio.socketApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A direct ByteBuffer borrowed from a BufferPool, plus its reference count.
+ *
+ *  Whoever holds a reference calls release() when done with it, the buffer goes back to the pool
+ *  when the count drops to 0. Call retain() before handing the same buffer to a second owner.
+ */
+public class PooledBuffer {
+
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    private final int sizeClass;
+    private int refCnt;
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeClass) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+        this.refCnt = 1;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public PooledBuffer retain() {
+        if (refCnt <= 0) {
+            throw new IllegalStateException("buffer already released");
+        }
+        refCnt++;
+        return this;
+    }
+
+    public void release() {
+        if (refCnt <= 0) {
+            throw new IllegalStateException("buffer already released");
+        }
+        if (--refCnt == 0) {
+            pool.recycle(this);
+        }
+    }
+
+    public int refCnt() {
+        return refCnt;
+    }
+
+    int sizeClass() {
+        return sizeClass;
+    }
+
+    void reset() {
+        buffer.clear();
+        refCnt = 1;
+    }
+}
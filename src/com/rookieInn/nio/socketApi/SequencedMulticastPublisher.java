@@ -0,0 +1,220 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Multicast publisher with sequence numbers, batching and NACK based recovery.
+ *
+ *  Every message gets the next sequence number and is copied into a datagram together with the messages
+ *  published right before it, the datagram goes out when it is full or on flush(). All datagrams share
+ *  one layout (big-endian):
+ *
+ *      DATA / RETRANSMIT   type(1) firstSeq(8) count(2) { length(2) bytes }*count
+ *      HEARTBEAT           type(1) lastSeq(8)
+ *      NACK                type(1) fromSeq(8) count(4)        subscriber -> publisher, unicast
+ *      GONE                type(1) fromSeq(8) count(4)        publisher -> subscriber, the range left the ring
+ *
+ *  The last ringSize messages are kept in a ring of preallocated slots. serviceNacks() answers every NACK
+ *  waiting on the channel by sending the requested messages back to that subscriber over unicast, or a
+ *  GONE for the part of the range that is no longer in the ring. The channel is the one NACKs are sent to,
+ *  it must be bound and non-blocking, and multicasts go out of it so subscribers learn its address.
+ *
+ *  A datagram the channel refuses (a full send buffer) is counted in refused() and not tried again: its
+ *  messages are already in the ring, so subscribers get them back like any other lost datagram. A NACK
+ *  with an empty or negative range, or starting before sequence number 1, is ignored.
+ */
+public class SequencedMulticastPublisher {
+
+    static final byte DATA = 'D';
+    static final byte RETRANSMIT = 'R';
+    static final byte HEARTBEAT = 'H';
+    static final byte NACK = 'N';
+    static final byte GONE = 'G';
+
+    static final int DATA_HEADER = 1 + 8 + 2;
+    static final int MAX_NACK_RANGE = 4096;
+
+    private final DatagramChannel channel;
+    private final SocketAddress group;
+    private final int maxMessageSize;
+
+    private final ByteBuffer batch;
+    private final ByteBuffer retransmit;
+    private final ByteBuffer control = ByteBuffer.allocateDirect(16);
+    private final ByteBuffer[] ring;
+
+    private long nextSeq = 1;
+    private int batchCount = 0;
+    private long lastSend = System.nanoTime();
+
+    private long retransmitted = 0;
+    private long gone = 0;
+    private long refused = 0;
+
+    public SequencedMulticastPublisher(DatagramChannel channel, InetSocketAddress group, int ringSize, int maxMessageSize, int maxDatagramSize) {
+        if (maxMessageSize + 2 + DATA_HEADER > maxDatagramSize) {
+            throw new IllegalArgumentException("a message of maxMessageSize bytes does not fit in a datagram");
+        }
+        this.channel = channel;
+        this.group = group;
+        this.maxMessageSize = maxMessageSize;
+        this.batch = ByteBuffer.allocateDirect(maxDatagramSize);
+        this.retransmit = ByteBuffer.allocateDirect(maxDatagramSize);
+        this.ring = new ByteBuffer[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            ring[i] = ByteBuffer.allocate(maxMessageSize);
+        }
+    }
+
+    //stamp the message with the next sequence number and add it to the current datagram, return its sequence number
+    public long publish(ByteBuffer message) throws IOException {
+        int length = message.remaining();
+        if (length > maxMessageSize) {
+            throw new IllegalArgumentException("message of " + length + " bytes, at most " + maxMessageSize + " allowed");
+        }
+        if (batch.position() > 0 && batch.remaining() < 2 + length) {
+            flush();
+        }
+
+        long seq = nextSeq++;
+        ByteBuffer kept = ring[(int) (seq % ring.length)];
+        kept.clear();
+        kept.put(message.duplicate());
+        kept.flip();
+
+        if (batch.position() == 0) {
+            batch.put(DATA).putLong(seq).putShort((short) 0);
+            batchCount = 0;
+        }
+        batch.putShort((short) length);
+        batch.put(message);
+        batchCount++;
+        return seq;
+    }
+
+    //send the current datagram, if it holds anything
+    public void flush() throws IOException {
+        if (batch.position() == 0) {
+            return;
+        }
+        batch.putShort(1 + 8, (short) batchCount);
+        batch.flip();
+        send(batch, group);
+        batch.clear();
+        lastSend = System.nanoTime();
+    }
+
+    //tell the subscribers the last sequence number, so they notice lost datagrams at the tail of a burst
+    public void heartbeat() throws IOException {
+        flush();
+        control.clear();
+        control.put(HEARTBEAT).putLong(nextSeq - 1);
+        control.flip();
+        send(control, group);
+        lastSend = System.nanoTime();
+    }
+
+    //nanoseconds since the last datagram went out
+    public long idleNanos() {
+        return System.nanoTime() - lastSend;
+    }
+
+    public long lastSequence() {
+        return nextSeq - 1;
+    }
+
+    public long retransmitted() {
+        return retransmitted;
+    }
+
+    public long gone() {
+        return gone;
+    }
+
+    //datagrams the channel did not take
+    public long refused() {
+        return refused;
+    }
+
+    //answer every NACK waiting on the channel, return how many were served
+    public int serviceNacks() throws IOException {
+        int served = 0;
+        while (true) {
+            control.clear();
+            SocketAddress subscriber = channel.receive(control);
+            if (subscriber == null) {
+                return served;
+            }
+            control.flip();
+            if (control.remaining() < 1 + 8 + 4 || control.get() != NACK) {
+                continue;
+            }
+            long from = control.getLong();
+            int count = control.getInt();
+            if (from < 1 || count <= 0) {
+                continue;
+            }
+            resend(subscriber, from, from + Math.min(count, MAX_NACK_RANGE));
+            served++;
+        }
+    }
+
+    private void resend(SocketAddress subscriber, long from, long to) throws IOException {
+        long oldest = Math.max(1, nextSeq - ring.length);
+        to = Math.min(to, nextSeq);
+        if (from >= to) {
+            return;
+        }
+        if (from < oldest) {
+            long lost = Math.min(oldest, to) - from;
+            control.clear();
+            control.put(GONE).putLong(from).putInt((int) lost);
+            control.flip();
+            if (send(control, subscriber)) {
+                gone += lost;
+            }
+            from = oldest;
+        }
+
+        retransmit.clear();
+        int count = 0;
+        for (long seq = from; seq < to; seq++) {
+            ByteBuffer kept = ring[(int) (seq % ring.length)];
+            if (count > 0 && retransmit.remaining() < 2 + kept.remaining()) {
+                sendRetransmit(subscriber, count);
+                count = 0;
+            }
+            if (count == 0) {
+                retransmit.put(RETRANSMIT).putLong(seq).putShort((short) 0);
+            }
+            retransmit.putShort((short) kept.remaining());
+            retransmit.put(kept.duplicate());
+            count++;
+        }
+        if (count > 0) {
+            sendRetransmit(subscriber, count);
+        }
+    }
+
+    private void sendRetransmit(SocketAddress subscriber, int count) throws IOException {
+        retransmit.putShort(1 + 8, (short) count);
+        retransmit.flip();
+        if (send(retransmit, subscriber)) {
+            retransmitted += count;
+        }
+        retransmit.clear();
+    }
+
+    //false when the channel refused the datagram
+    private boolean send(ByteBuffer datagram, SocketAddress target) throws IOException {
+        if (channel.send(datagram, target) == 0) {
+            refused++;
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,253 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static com.rookieInn.nio.socketApi.SequencedMulticastPublisher.*;
+
+/**
+ * Receiving side of SequencedMulticastPublisher: delivers the messages in sequence order, notices gaps and
+ * asks the publisher for the missing messages.
+ *
+ *  Two non-blocking channels are drained by poll(): the one that joined the group, and a unicast one on
+ *  any port, which sends the NACKs and receives the retransmits. The publisher's address is taken from
+ *  the multicast datagrams. The first datagram fixes the starting sequence number, so a late joiner does
+ *  not ask for the whole history.
+ *
+ *  A message that arrives ahead of a gap waits in a bounded map until the gap is filled. checkGaps(now)
+ *  sends a NACK for the first gap every nackIntervalMillis, after maxRetries NACKs (or a GONE from the
+ *  publisher, or a full map) the gap is reported to the listener as lost and delivery moves on.
+ *
+ *  dropRate throws away that fraction of the multicast datagrams on arrival, so recovery can be watched
+ *  on loopback where nothing is ever lost.
+ */
+public class SequencedMulticastSubscriber {
+
+    public interface Listener {
+        //the message is only valid during the call
+        void onMessage(long seq, ByteBuffer message);
+
+        void onLoss(long fromSeq, long count);
+    }
+
+    private final DatagramChannel multicast;
+    private final DatagramChannel unicast;
+    private final Listener listener;
+    private final int maxPending;
+    private final long nackIntervalMillis;
+    private final int maxRetries;
+    private final double dropRate;
+    private final Random random = new Random();
+
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(65507);
+    private final ByteBuffer control = ByteBuffer.allocateDirect(16);
+    private final TreeMap<Long, ByteBuffer> pending = new TreeMap<>();
+
+    private SocketAddress publisher;
+    private long expected = 0;
+    private long highestSeen = 0;
+    private long nackedSeq = 0;
+    private long lastNack = 0;
+    private int retries = 0;
+
+    private long delivered = 0;
+    private long recovered = 0;
+    private long lost = 0;
+    private long duplicates = 0;
+    private long gaps = 0;
+    private long nacksSent = 0;
+    private long dropped = 0;
+
+    public SequencedMulticastSubscriber(DatagramChannel multicast, DatagramChannel unicast, Listener listener,
+                                        int maxPending, long nackIntervalMillis, int maxRetries, double dropRate) {
+        this.multicast = multicast;
+        this.unicast = unicast;
+        this.listener = listener;
+        this.maxPending = maxPending;
+        this.nackIntervalMillis = nackIntervalMillis;
+        this.maxRetries = maxRetries;
+        this.dropRate = dropRate;
+    }
+
+    //drain both channels, return how many datagrams were handled
+    public int poll() throws IOException {
+        int handled = 0;
+        SocketAddress sender;
+        while (true) {
+            datagram.clear();
+            if ((sender = multicast.receive(datagram)) == null) {
+                break;
+            }
+            if (dropRate > 0 && random.nextDouble() < dropRate) {
+                dropped++;
+                continue;
+            }
+            publisher = sender;
+            datagram.flip();
+            handle(datagram);
+            handled++;
+        }
+        while (true) {
+            datagram.clear();
+            if (unicast.receive(datagram) == null) {
+                break;
+            }
+            datagram.flip();
+            handle(datagram);
+            handled++;
+        }
+        return handled;
+    }
+
+    private void handle(ByteBuffer datagram) {
+        if (!datagram.hasRemaining()) {
+            return;
+        }
+        byte type = datagram.get();
+        if (type == DATA || type == RETRANSMIT) {
+            if (datagram.remaining() < DATA_HEADER - 1) {
+                return;
+            }
+            long seq = datagram.getLong();
+            int count = datagram.getShort() & 0xffff;
+            if (expected == 0) {
+                if (type == RETRANSMIT) {
+                    return;
+                }
+                expected = seq;
+            }
+            int limit = datagram.limit();
+            for (int i = 0; i < count && datagram.remaining() >= 2; i++, seq++) {
+                int length = datagram.getShort() & 0xffff;
+                if (length > datagram.remaining()) {
+                    return;
+                }
+                int end = datagram.position() + length;
+                datagram.limit(end);
+                message(seq, datagram, type == RETRANSMIT);
+                datagram.limit(limit);
+                datagram.position(end);
+            }
+        } else if (type == HEARTBEAT && datagram.remaining() >= 8) {
+            long lastSeq = datagram.getLong();
+            if (expected == 0) {
+                expected = lastSeq + 1;
+            }
+            seen(lastSeq);
+        } else if (type == GONE && datagram.remaining() >= 12) {
+            long from = datagram.getLong();
+            long end = from + datagram.getInt();
+            if (from <= expected && end > expected) {
+                skipTo(end);
+            }
+        }
+    }
+
+    private void message(long seq, ByteBuffer message, boolean retransmit) {
+        if (seq < expected || pending.containsKey(seq)) {
+            duplicates++;
+            return;
+        }
+        if (seq == expected) {
+            deliver(seq, message, retransmit);
+            expected++;
+            drainPending();
+            return;
+        }
+
+        //ahead of a gap, keep a copy until the gap is filled
+        seen(seq);
+        ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+        copy.put(message).flip();
+        pending.put(seq, copy);
+        if (pending.size() > maxPending) {
+            //cannot wait any longer, give up on the first gap
+            skipTo(pending.firstKey());
+        }
+    }
+
+    private void seen(long seq) {
+        if (seq >= expected && seq > highestSeen) {
+            if (highestSeen < expected) {
+                //this opens a new gap
+                gaps++;
+            }
+            highestSeen = seq;
+        }
+    }
+
+    private void deliver(long seq, ByteBuffer message, boolean retransmit) {
+        delivered++;
+        if (retransmit) {
+            recovered++;
+        }
+        listener.onMessage(seq, message);
+    }
+
+    private void drainPending() {
+        Map.Entry<Long, ByteBuffer> next;
+        while ((next = pending.firstEntry()) != null && next.getKey() == expected) {
+            pending.pollFirstEntry();
+            deliver(expected, next.getValue(), false);
+            expected++;
+        }
+        while ((next = pending.firstEntry()) != null && next.getKey() < expected) {
+            pending.pollFirstEntry();
+        }
+    }
+
+    //report everything below seq as lost and carry on from there
+    private void skipTo(long seq) {
+        long missing = seq - expected;
+        if (missing <= 0) {
+            return;
+        }
+        lost += missing;
+        listener.onLoss(expected, missing);
+        expected = seq;
+        retries = 0;
+        drainPending();
+    }
+
+    //NACK the first gap if it has waited long enough, call it after poll() and on select() timeouts
+    public void checkGaps(long now) throws IOException {
+        if (highestSeen < expected || publisher == null) {
+            return;
+        }
+        if (nackedSeq == expected && now - lastNack < nackIntervalMillis) {
+            return;
+        }
+        if (nackedSeq != expected) {
+            retries = 0;
+        } else if (++retries >= maxRetries) {
+            skipTo(pending.isEmpty() ? highestSeen + 1 : pending.firstKey());
+            if (highestSeen < expected) {
+                return;
+            }
+        }
+
+        long end = pending.isEmpty() ? highestSeen + 1 : pending.firstKey();
+        control.clear();
+        control.put(NACK).putLong(expected).putInt((int) Math.min(end - expected, MAX_NACK_RANGE));
+        control.flip();
+        unicast.send(control, publisher);
+        nacksSent++;
+        nackedSeq = expected;
+        lastNack = now;
+    }
+
+    public long expected() {
+        return expected;
+    }
+
+    @Override
+    public String toString() {
+        return "delivered=" + delivered + " recovered=" + recovered + " lost=" + lost + " gaps=" + gaps
+                + " nacks=" + nacksSent + " duplicates=" + duplicates + " dropped=" + dropped + " pending=" + pending.size();
+    }
+}
@@ -0,0 +1,207 @@
+package com.rookieInn.nio.socketApi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Gap detection, NACK and GONE between a SequencedMulticastPublisher and a SequencedMulticastSubscriber.
+ *
+ *  Everything runs on loopback with unicast: the publisher's "group" is the address of the subscriber's
+ *  receiving channel. A datagram is lost by reading it off that channel before the subscriber polls.
+ */
+public class SequencedMulticastTest {
+
+    private static final long TIMEOUT_MILLIS = 2000;
+
+    /**
+     * Keeps what the subscriber delivered and reported lost.
+     */
+    static class Recorder implements SequencedMulticastSubscriber.Listener {
+        final List<Long> delivered = new ArrayList<>();
+        final List<String> messages = new ArrayList<>();
+        final List<Long> lost = new ArrayList<>();
+
+        @Override
+        public void onMessage(long seq, ByteBuffer message) {
+            delivered.add(seq);
+            messages.add(StandardCharsets.UTF_8.decode(message).toString());
+        }
+
+        @Override
+        public void onLoss(long fromSeq, long count) {
+            for (long seq = fromSeq; seq < fromSeq + count; seq++) {
+                lost.add(seq);
+            }
+        }
+    }
+
+    private DatagramChannel publisherChannel;
+    private DatagramChannel multicast;
+    private DatagramChannel unicast;
+    private final ByteBuffer scratch = ByteBuffer.allocate(65507);
+
+    @Before
+    public void open() throws IOException {
+        publisherChannel = bind();
+        multicast = bind();
+        unicast = bind();
+    }
+
+    @After
+    public void close() throws IOException {
+        publisherChannel.close();
+        multicast.close();
+        unicast.close();
+    }
+
+    private static DatagramChannel bind() throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress("127.0.0.1", 0));
+        channel.configureBlocking(false);
+        return channel;
+    }
+
+    private SequencedMulticastPublisher publisher(int ringSize) throws IOException {
+        return new SequencedMulticastPublisher(publisherChannel, (InetSocketAddress) multicast.getLocalAddress(), ringSize, 64, 512);
+    }
+
+    private SequencedMulticastSubscriber subscriber(Recorder recorder) {
+        return new SequencedMulticastSubscriber(multicast, unicast, recorder, 64, 0, 3, 0);
+    }
+
+    //publish one message in a datagram of its own
+    private static void send(SequencedMulticastPublisher publisher, String message) throws IOException {
+        publisher.publish(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+        publisher.flush();
+    }
+
+    //take the next datagram off channel, as if the network had lost it
+    private SocketAddress drop(DatagramChannel channel) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        SocketAddress sender;
+        scratch.clear();
+        while ((sender = channel.receive(scratch)) == null) {
+            assertTrue("no datagram arrived", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        return sender;
+    }
+
+    //poll until the subscriber delivered count messages
+    private static void pollUntil(SequencedMulticastSubscriber subscriber, Recorder recorder, int count) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (recorder.delivered.size() < count) {
+            assertTrue("delivered " + recorder.delivered + ", expected " + count, System.currentTimeMillis() < deadline);
+            subscriber.poll();
+            Thread.sleep(1);
+        }
+    }
+
+    //poll until a datagram was handled, a later datagram opens its gap
+    private static void pollOnce(SequencedMulticastSubscriber subscriber) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (subscriber.poll() == 0) {
+            assertTrue("nothing arrived", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void serveNack(SequencedMulticastPublisher publisher) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (publisher.serviceNacks() == 0) {
+            assertTrue("no NACK arrived", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void gapIsFilledByRetransmit() throws IOException, InterruptedException {
+        SequencedMulticastPublisher publisher = publisher(16);
+        Recorder recorder = new Recorder();
+        SequencedMulticastSubscriber subscriber = subscriber(recorder);
+
+        send(publisher, "one");
+        pollUntil(subscriber, recorder, 1);
+        send(publisher, "two");
+        drop(multicast);
+        send(publisher, "three");
+        pollOnce(subscriber);
+        assertEquals(Arrays.asList(1L), recorder.delivered);
+
+        subscriber.checkGaps(System.currentTimeMillis());
+        serveNack(publisher);
+        pollUntil(subscriber, recorder, 3);
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), recorder.delivered);
+        assertEquals(Arrays.asList("one", "two", "three"), recorder.messages);
+        assertEquals(0, recorder.lost.size());
+        assertEquals(1, publisher.retransmitted());
+        assertEquals(0, publisher.gone());
+    }
+
+    @Test
+    public void rangeThatLeftTheRingIsGone() throws IOException, InterruptedException {
+        SequencedMulticastPublisher publisher = publisher(4);
+        Recorder recorder = new Recorder();
+        SequencedMulticastSubscriber subscriber = subscriber(recorder);
+
+        send(publisher, "1");
+        pollUntil(subscriber, recorder, 1);
+        for (int seq = 2; seq <= 7; seq++) {
+            send(publisher, Integer.toString(seq));
+            drop(multicast);
+        }
+        send(publisher, "8");
+        pollOnce(subscriber);
+
+        //the ring holds 5..8 now, 2..4 can only be reported lost
+        subscriber.checkGaps(System.currentTimeMillis());
+        serveNack(publisher);
+        pollUntil(subscriber, recorder, 5);
+
+        assertEquals(Arrays.asList(2L, 3L, 4L), recorder.lost);
+        assertEquals(Arrays.asList(1L, 5L, 6L, 7L, 8L), recorder.delivered);
+        assertEquals(3, publisher.gone());
+        assertEquals(3, publisher.retransmitted());
+    }
+
+    @Test
+    public void nackWithNegativeCountIsIgnored() throws IOException, InterruptedException {
+        SequencedMulticastPublisher publisher = publisher(4);
+        for (int seq = 1; seq <= 10; seq++) {
+            send(publisher, Integer.toString(seq));
+        }
+
+        //a NACK below the ring with a negative count, then a valid one for 9
+        ByteBuffer nack = ByteBuffer.allocate(13);
+        nack.put(SequencedMulticastPublisher.NACK).putLong(2).putInt(-1).flip();
+        unicast.send(nack, publisherChannel.getLocalAddress());
+        nack.clear();
+        nack.put(SequencedMulticastPublisher.NACK).putLong(9).putInt(1).flip();
+        unicast.send(nack, publisherChannel.getLocalAddress());
+        serveNack(publisher);
+
+        drop(unicast);
+        assertEquals(SequencedMulticastPublisher.RETRANSMIT, scratch.get(0));
+        assertEquals(9, scratch.getLong(1));
+        scratch.clear();
+        assertNull(unicast.receive(scratch));
+        assertEquals(0, publisher.gone());
+        assertEquals(1, publisher.retransmitted());
+    }
+}
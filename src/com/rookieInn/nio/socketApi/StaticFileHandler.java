@@ -0,0 +1,76 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Serves the files below a root directory, to be used with a line codec (DelimiterCodec on "\n").
+ *
+ *  request:    GET <path relative to root>
+ *  response:   OK <size>            followed by exactly size bytes of the file
+ *              ERR <reason>
+ *
+ *  The file is never read into the heap, it is queued as a FileRegion and the selector server streams it
+ *  with FileChannel.transferTo(), resuming from the stored position on every OP_WRITE.
+ *
+ *  Requests are resolved with toRealPath(), so neither ../ nor a symbolic link below root can reach a file
+ *  outside of it, and the resolved file is opened with NOFOLLOW_LINKS in case a link was put in its place since.
+ */
+public class StaticFileHandler implements FrameHandler {
+
+    private final Path root;
+
+    public StaticFileHandler(Path root) throws IOException {
+        this.root = root.toRealPath();
+    }
+
+    @Override
+    public void frameReceived(FramePipeline pipeline, ByteBuffer frame) throws IOException {
+        String request = StandardCharsets.UTF_8.decode(frame).toString().trim();
+        if (!request.startsWith("GET ")) {
+            reply(pipeline, "ERR bad request");
+            return;
+        }
+
+        //do not let ../ or a link escape from the root directory
+        Path file;
+        try {
+            file = root.resolve(request.substring("GET ".length()).trim()).toRealPath();
+        } catch (IOException e) {
+            reply(pipeline, "ERR not found");
+            return;
+        }
+        if (!file.startsWith(root) || !Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+            reply(pipeline, "ERR not found");
+            return;
+        }
+
+        FileChannel channel;
+        long size;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            reply(pipeline, "ERR " + e.getMessage());
+            return;
+        }
+        try {
+            size = channel.size();
+            reply(pipeline, "OK " + size);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        //from here on the pipeline closes the channel
+        pipeline.writeFile(new FileRegion(channel, 0, size));
+    }
+
+    private void reply(FramePipeline pipeline, String line) throws IOException {
+        pipeline.write(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
+    }
+}
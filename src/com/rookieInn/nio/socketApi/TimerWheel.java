@@ -0,0 +1,142 @@
+package com.rookieInn.nio.socketApi;
+
+/**
+ * Hashed timing wheel driven by a selector loop.
+ *
+ *  The wheel has wheelSize buckets of tickMillis each, a timeout lands in bucket (deadlineTick & mask),
+ *  timeouts more than one turn away simply stay in their bucket until their tick comes round.
+ *  Timeouts are intrusive nodes of a doubly linked list, so schedule() and cancel() are O(1) and
+ *  allocate nothing, the caller keeps one Timeout per connection and reschedules it.
+ *
+ *  The wheel is not thread safe, it belongs to the thread running the selector loop:
+ *
+ *      selector.select(wheel.nextTimeout(now));
+ *      ... process selected keys ...
+ *      wheel.expire(now);
+ */
+public class TimerWheel {
+
+    /**
+     * A node of the wheel, subclasses decide what happens on expiry.
+     */
+    public abstract static class Timeout {
+        private long deadlineTick;
+        private int bucket = -1;
+        private Timeout prev;
+        private Timeout next;
+
+        public boolean isScheduled() {
+            return bucket >= 0;
+        }
+
+        //called by TimerWheel.expire(), the timeout is already unlinked so it may reschedule itself
+        protected abstract void expire(long now);
+    }
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final int mask;
+    private final Timeout[] buckets;
+
+    private long currentTick = 0;
+    private int size = 0;
+
+    public TimerWheel(long tickMillis, int wheelSize, long now) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        if (wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0) {
+            throw new IllegalArgumentException("wheelSize must be a power of two");
+        }
+        this.tickMillis = tickMillis;
+        this.startMillis = now;
+        this.mask = wheelSize - 1;
+        this.buckets = new Timeout[wheelSize];
+    }
+
+    //(re)schedule the timeout to fire at the given deadline, in milliseconds on the same clock as now
+    public void schedule(Timeout timeout, long deadline) {
+        if (timeout.isScheduled()) {
+            cancel(timeout);
+        }
+
+        //round up so that a timeout never fires early
+        long tick = (deadline - startMillis + tickMillis - 1) / tickMillis;
+        if (tick < currentTick) {
+            tick = currentTick;
+        }
+        int bucket = (int) (tick & mask);
+
+        timeout.deadlineTick = tick;
+        timeout.bucket = bucket;
+        timeout.prev = null;
+        timeout.next = buckets[bucket];
+        if (buckets[bucket] != null) {
+            buckets[bucket].prev = timeout;
+        }
+        buckets[bucket] = timeout;
+        size++;
+    }
+
+    public void cancel(Timeout timeout) {
+        if (!timeout.isScheduled()) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        size--;
+    }
+
+    //fire every timeout whose tick has passed, return how many fired
+    public int expire(long now) {
+        long nowTick = (now - startMillis) / tickMillis;
+        if (nowTick < currentTick) {
+            return 0;
+        }
+
+        //after a long pause every bucket is visited once instead of every missed tick
+        long ticks = Math.min(nowTick - currentTick + 1, buckets.length);
+        int fired = 0;
+        for (long i = 0; i < ticks; i++) {
+            Timeout timeout = buckets[(int) ((currentTick + i) & mask)];
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.deadlineTick <= nowTick) {
+                    cancel(timeout);
+                    fired++;
+                    timeout.expire(now);
+                }
+                timeout = next;
+            }
+        }
+        currentTick = nowTick + 1;
+        return fired;
+    }
+
+    //milliseconds until the next non-empty tick, 0 when nothing is scheduled (select(0) blocks forever)
+    public long nextTimeout(long now) {
+        if (size == 0) {
+            return 0;
+        }
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[(int) ((currentTick + i) & mask)] != null) {
+                long tickEnd = startMillis + (currentTick + i) * tickMillis;
+                return Math.max(1, tickEnd - now);
+            }
+        }
+        return 0;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,115 @@
+package com.rookieInn.nio.socketApi;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Expiry of TimerWheel timeouts, within one turn of the wheel and across several turns.
+ */
+public class TimerWheelTest {
+
+    /**
+     * Records the moments it fired at.
+     */
+    static class Recorder extends TimerWheel.Timeout {
+        final List<Long> fired = new ArrayList<>();
+
+        @Override
+        protected void expire(long now) {
+            fired.add(now);
+        }
+    }
+
+    //step the clock by tickMillis, like a selector loop that wakes up on every tick
+    private static void run(TimerWheel wheel, long from, long to, long step) {
+        for (long now = from; now <= to; now += step) {
+            wheel.expire(now);
+        }
+    }
+
+    @Test
+    public void firesOnItsTickNeverEarly() {
+        TimerWheel wheel = new TimerWheel(10, 8, 0);
+        Recorder timeout = new Recorder();
+        wheel.schedule(timeout, 35);
+
+        run(wheel, 0, 34, 1);
+        assertEquals(0, timeout.fired.size());
+        run(wheel, 35, 49, 1);
+        assertEquals(1, timeout.fired.size());
+        assertTrue("fired at " + timeout.fired.get(0), timeout.fired.get(0) >= 35);
+        assertFalse(timeout.isScheduled());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void waitsForItsTurnAcrossRotations() {
+        //8 buckets of 10 ms, one turn is 80 ms, the deadline is more than three turns away
+        TimerWheel wheel = new TimerWheel(10, 8, 0);
+        Recorder far = new Recorder();
+        Recorder sameBucket = new Recorder();
+        wheel.schedule(far, 275);
+        //lands in the same bucket as far, one turn earlier
+        wheel.schedule(sameBucket, 195);
+
+        run(wheel, 0, 200, 10);
+        assertEquals(1, sameBucket.fired.size());
+        assertEquals(0, far.fired.size());
+
+        run(wheel, 210, 270, 10);
+        assertEquals(0, far.fired.size());
+        run(wheel, 280, 400, 10);
+        assertEquals(1, far.fired.size());
+        assertTrue(far.fired.get(0) >= 275);
+    }
+
+    @Test
+    public void longPauseFiresEverythingDue() {
+        TimerWheel wheel = new TimerWheel(10, 8, 0);
+        List<Recorder> timeouts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Recorder timeout = new Recorder();
+            wheel.schedule(timeout, 50 + i * 30);
+            timeouts.add(timeout);
+        }
+
+        //the loop was stuck for several turns of the wheel
+        assertEquals(20, wheel.expire(1000));
+        for (Recorder timeout : timeouts) {
+            assertEquals(1, timeout.fired.size());
+        }
+        assertEquals(0, wheel.nextTimeout(1000));
+    }
+
+    @Test
+    public void rescheduleAndCancel() {
+        TimerWheel wheel = new TimerWheel(10, 8, 0);
+        Recorder moved = new Recorder();
+        Recorder cancelled = new Recorder();
+        wheel.schedule(moved, 30);
+        wheel.schedule(cancelled, 30);
+        wheel.schedule(moved, 130);
+        wheel.cancel(cancelled);
+        assertEquals(1, wheel.size());
+
+        run(wheel, 0, 120, 10);
+        assertEquals(0, moved.fired.size());
+        assertEquals(0, cancelled.fired.size());
+        run(wheel, 130, 140, 10);
+        assertEquals(1, moved.fired.size());
+    }
+
+    @Test
+    public void nextTimeoutPointsAtTheEndOfTheDueTick() {
+        TimerWheel wheel = new TimerWheel(10, 8, 0);
+        wheel.schedule(new Recorder(), 45);
+        long wait = wheel.nextTimeout(0);
+        assertTrue("wait " + wait, wait >= 45 && wait <= 50);
+    }
+}
@@ -0,0 +1,194 @@
+package com.rookieInn.nio.socketApi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.BitSet;
+
+/**
+ * UDP request/response benchmark against UdpServer (or any other echo), the benchmark mode of UdpClient
+ * and UdpConnectedClient.
+ *
+ *  Packets go out on a fixed schedule and carry their sequence number and the time they were due:
+ *
+ *      seq(8) dueTime(8) padding
+ *
+ *  so the RTT comes straight out of the echo, lost, duplicated and reordered echoes are told apart by the
+ *  sequence number. Every send()/write() call is timed on its own, which shows what connect() saves:
+ *  an unconnected channel resolves the route and checks permissions on every send, a connected one does it
+ *  once. A connected channel also hears about a closed server port (PortUnreachableException).
+ *  After the sending stops, echoes are awaited one more second before the rest count as lost. Only the
+ *  datagrams the channel took count as sent, the ones it refused or that hit a PortUnreachableException
+ *  are counted on their own and never as lost.
+ *
+ *  usage: UdpBenchmark <connected | unconnected | both> [packetsPerSecond] [seconds] [packetSize]
+ *      rate 0 sends as fast as the channel takes it
+ *  -Dudp.host=127.0.0.1 -Dudp.port=5555
+ */
+public class UdpBenchmark {
+
+    private static final int HEADER = 16;
+
+    static class Result {
+        final String mode;
+        final LatencyHistogram rtt = new LatencyHistogram();
+        final LatencyHistogram sendCost = new LatencyHistogram();
+        final BitSet echoed = new BitSet();
+        long sent = 0;
+        long sendFailed = 0;
+        long received = 0;
+        long duplicates = 0;
+        long reordered = 0;
+        long unreachable = 0;
+        long highestSeq = -1;
+        int seconds;
+
+        Result(String mode) {
+            this.mode = mode;
+        }
+
+        void print() {
+            System.out.println("--- " + mode + " ---");
+            System.out.println("sent:        " + sent + " (" + sent / seconds + "/s, " + sendFailed + " not taken by the channel)");
+            System.out.println("received:    " + received + " (" + received / seconds + "/s)");
+            System.out.println("lost:        " + (sent - received) + String.format(" (%.3f%%)", sent == 0 ? 0 : 100.0 * (sent - received) / sent));
+            System.out.println("reordered:   " + reordered + ", duplicates: " + duplicates + ", port unreachable: " + unreachable);
+            System.out.print(sendCost.format("send call, ns", 1));
+            System.out.print(rtt.format("rtt, us", 1000));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        final String mode = args.length > 0 ? args[0] : "both";
+        final int rate = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        final int packetSize = Math.max(HEADER, args.length > 3 ? Integer.parseInt(args[3]) : 64);
+        InetSocketAddress server = new InetSocketAddress(System.getProperty("udp.host", "127.0.0.1"), Integer.getInteger("udp.port", 5555));
+
+        System.out.println((rate == 0 ? "As fast as possible" : rate + " packets/s") + ", " + packetSize + " byte packets to " + server + " for " + seconds + " s");
+        if ("both".equals(mode)) {
+            Result unconnected = run(false, server, rate, seconds, packetSize);
+            Result connected = run(true, server, rate, seconds, packetSize);
+            unconnected.print();
+            connected.print();
+            System.out.println(String.format("send() unconnected %.0f ns, write() connected %.0f ns per packet",
+                    unconnected.sendCost.mean(), connected.sendCost.mean()));
+        } else {
+            run("connected".equals(mode), server, rate, seconds, packetSize).print();
+        }
+    }
+
+    static Result run(boolean connected, InetSocketAddress server, int rate, int seconds, int packetSize) throws IOException {
+        final long DRAIN = 1000000000L;
+        Result result = new Result(connected ? "connected" : "unconnected");
+        result.seconds = seconds;
+
+        ByteBuffer packet = ByteBuffer.allocateDirect(packetSize);
+        ByteBuffer echo = ByteBuffer.allocateDirect(65507);
+
+        try (Selector selector = Selector.open();
+             DatagramChannel datagramChannel = DatagramChannel.open(StandardProtocolFamily.INET)) {
+            //set some options
+            datagramChannel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+            datagramChannel.setOption(StandardSocketOptions.SO_SNDBUF, 4 * 1024 * 1024);
+            datagramChannel.configureBlocking(false);
+            if (connected) {
+                datagramChannel.connect(server);
+            }
+            datagramChannel.register(selector, SelectionKey.OP_READ);
+
+            long interval = rate > 0 ? 1000000000L / rate : 0;
+            long start = System.nanoTime();
+            long end = start + seconds * 1000000000L;
+            long nextSend = start;
+
+            while (true) {
+                long now = System.nanoTime();
+                if (now >= end + DRAIN || (now >= end && result.received == result.sent)) {
+                    break;
+                }
+
+                //send everything that is due
+                while (now < end && nextSend <= now) {
+                    packet.clear();
+                    //sequence numbers only go to datagrams the channel took, so seq < sent for every echo
+                    packet.putLong(result.sent).putLong(nextSend);
+                    packet.position(0);
+                    long before = System.nanoTime();
+                    int sent;
+                    try {
+                        sent = connected ? datagramChannel.write(packet) : datagramChannel.send(packet, server);
+                    } catch (PortUnreachableException e) {
+                        //an ICMP error for an earlier packet, this one was not sent
+                        result.unreachable++;
+                        sent = -1;
+                    }
+                    result.sendCost.record(System.nanoTime() - before);
+                    if (sent > 0) {
+                        result.sent++;
+                    } else if (sent == 0) {
+                        result.sendFailed++;
+                    }
+                    nextSend = interval > 0 ? nextSend + interval : System.nanoTime();
+                    if (interval == 0) {
+                        break;
+                    }
+                }
+
+                long wait = (now < end ? nextSend : end + DRAIN) - System.nanoTime();
+                if (interval > 0 && wait >= 1000000) {
+                    selector.select(wait / 1000000);
+                } else {
+                    selector.selectNow();
+                }
+                selector.selectedKeys().clear();
+                receive(datagramChannel, connected, echo, result);
+            }
+        }
+        return result;
+    }
+
+    private static void receive(DatagramChannel datagramChannel, boolean connected, ByteBuffer echo, Result result) throws IOException {
+        while (true) {
+            echo.clear();
+            try {
+                if (connected) {
+                    if (datagramChannel.read(echo) <= 0) {
+                        return;
+                    }
+                } else if (datagramChannel.receive(echo) == null) {
+                    return;
+                }
+            } catch (PortUnreachableException e) {
+                //an ICMP error for an earlier packet, only connected channels report it
+                result.unreachable++;
+                continue;
+            }
+            long now = System.nanoTime();
+            echo.flip();
+            if (echo.remaining() < HEADER) {
+                continue;
+            }
+            long seq = echo.getLong();
+            long due = echo.getLong();
+            if (seq < 0 || seq >= result.sent || result.echoed.get((int) seq)) {
+                result.duplicates++;
+                continue;
+            }
+            result.echoed.set((int) seq);
+            result.received++;
+            if (seq < result.highestSeq) {
+                result.reordered++;
+            } else {
+                result.highestSeq = seq;
+            }
+            result.rtt.record(now - due);
+        }
+    }
+}
@@ -12,11 +12,21 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 
 /**
+ *  "UdpClient benchmark [packetsPerSecond] [seconds] [packetSize]" runs UdpBenchmark with an unconnected channel
+ *  instead of sending a single packet.
+ *
  * Created by gxy on 2016/6/29.
  */
 public class UdpClient {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && "benchmark".equals(args[0])) {
+            String[] benchmarkArgs = args.clone();
+            benchmarkArgs[0] = "unconnected";
+            UdpBenchmark.main(benchmarkArgs);
+            return;
+        }
+
         final int REMOTE_PORT = 5555;
         final String REMOTE_IP = "127.0.0.1";
         final int MAX_PACKET_SIZE = 65507;
@@ -6,10 +6,19 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 
 /**
+ *  UDP Multicast Client
+ *
+ *  "UdpMulticastClient sequenced" subscribes to the feed of "UdpMulticastServer sequenced" through
+ *  SequencedMulticastSubscriber and prints once a second how many messages arrived, were recovered with a
+ *  NACK or were lost. -Dmulticast.dropRate=0.01 throws away 1% of the datagrams on arrival, to watch the
+ *  recovery on loopback (-Dmulticast.interface=lo).
+ *
  * Created by gxy on 2016/6/29.
  */
 public class UdpMulticastClient {
@@ -24,6 +33,11 @@ public class UdpMulticastClient {
         CharsetDecoder decoder = charset.newDecoder();
         ByteBuffer datetime = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
 
+        if (args.length > 0 && "sequenced".equals(args[0])) {
+            subscribeSequenced();
+            return;
+        }
+
         //create a new channel
         try(DatagramChannel datagramChannel = DatagramChannel.open(StandardProtocolFamily.INET)) {
             InetAddress group = InetAddress.getByName(GROUP);
@@ -32,7 +46,7 @@ public class UdpMulticastClient {
                 //check if the channel was successfully created
                 if (datagramChannel.isOpen()) {
                     //get the network interface used for multicast
-                    NetworkInterface networkInterface = NetworkInterface.getByName("eth3");
+                    NetworkInterface networkInterface = NetworkInterface.getByName(System.getProperty("multicast.interface", "eth3"));
 
                     //set some options
                     datagramChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
@@ -64,4 +78,64 @@ public class UdpMulticastClient {
         }
     }
 
+    private static void subscribeSequenced() {
+        final int DEFAULT_PORT = 5555;
+        final String GROUP = "225.4.5.6";
+        final long NACK_INTERVAL = 20;
+
+        try (Selector selector = Selector.open();
+             DatagramChannel multicast = DatagramChannel.open(StandardProtocolFamily.INET);
+             DatagramChannel unicast = DatagramChannel.open(StandardProtocolFamily.INET)) {
+            NetworkInterface networkInterface = NetworkInterface.getByName(System.getProperty("multicast.interface", "eth3"));
+
+            //the group channel
+            multicast.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            multicast.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+            multicast.bind(new InetSocketAddress(DEFAULT_PORT));
+            multicast.join(InetAddress.getByName(GROUP), networkInterface);
+            multicast.configureBlocking(false);
+            multicast.register(selector, SelectionKey.OP_READ);
+
+            //NACKs go out and retransmits come back on any free port
+            unicast.bind(new InetSocketAddress(0));
+            unicast.configureBlocking(false);
+            unicast.register(selector, SelectionKey.OP_READ);
+
+            final long[] latency = new long[2];
+            SequencedMulticastSubscriber subscriber = new SequencedMulticastSubscriber(multicast, unicast,
+                    new SequencedMulticastSubscriber.Listener() {
+                        @Override
+                        public void onMessage(long seq, ByteBuffer message) {
+                            //the publisher puts its System.nanoTime() first, only meaningful on the same host
+                            latency[0] += System.nanoTime() - message.getLong(message.position());
+                            latency[1]++;
+                        }
+
+                        @Override
+                        public void onLoss(long fromSeq, long count) {
+                            System.out.println("Lost " + count + " messages from seq " + fromSeq);
+                        }
+                    }, 65536, NACK_INTERVAL, 10, Double.parseDouble(System.getProperty("multicast.dropRate", "0")));
+            System.out.println("Subscribed to " + GROUP + ":" + DEFAULT_PORT + ", NACKs from " + unicast.getLocalAddress());
+
+            long nextReport = System.currentTimeMillis() + 1000;
+            while (true) {
+                selector.select(NACK_INTERVAL);
+                selector.selectedKeys().clear();
+                subscriber.poll();
+
+                long now = System.currentTimeMillis();
+                subscriber.checkGaps(now);
+                if (now >= nextReport) {
+                    System.out.println(subscriber + " mean latency (us)=" + (latency[1] == 0 ? 0 : latency[0] / latency[1] / 1000));
+                    latency[0] = 0;
+                    latency[1] = 0;
+                    nextReport += 1000;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
 }
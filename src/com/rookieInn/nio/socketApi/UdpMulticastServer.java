@@ -38,6 +38,11 @@ import java.util.Date;
  *              }
  *          }
  *
+ *  "UdpMulticastServer sequenced [messagesPerSecond]" publishes a sequenced feed through SequencedMulticastPublisher
+ *  instead: small messages batched into datagrams, heartbeats while idle, and retransmits for the NACKs
+ *  subscribers send to port 5556. Run "UdpMulticastClient sequenced" against it. The interface is picked
+ *  with -Dmulticast.interface (default eth3), -Dmulticast.interface=lo keeps everything on loopback.
+ *
  * Created by gxy on 2016/6/29.
  */
 public class UdpMulticastServer {
@@ -47,12 +52,17 @@ public class UdpMulticastServer {
         final String GROUP = "225.4.5.6";
         ByteBuffer datetime;
 
+        if (args.length > 0 && "sequenced".equals(args[0])) {
+            publishSequenced(args.length > 1 ? Integer.parseInt(args[1]) : 10000);
+            return;
+        }
+
         //create a new channel
         try(DatagramChannel datagramChannel = DatagramChannel.open(StandardProtocolFamily.INET)) {
             //check if the channel was successfully created
             if (datagramChannel.isOpen()) {
                 //get the network interface used for multicast
-                NetworkInterface networkInterface = NetworkInterface.getByName("eth3");
+                NetworkInterface networkInterface = NetworkInterface.getByName(System.getProperty("multicast.interface", "eth3"));
 
                 //set some options
                 datagramChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
@@ -87,4 +97,66 @@ public class UdpMulticastServer {
 
     }
 
+    //publish messagesPerSecond small messages in 1 ms bursts, serving NACKs in between
+    private static void publishSequenced(int messagesPerSecond) {
+        final int DEFAULT_PORT = 5555;
+        final int NACK_PORT = 5556;
+        final String GROUP = "225.4.5.6";
+        final long HEARTBEAT_NANOS = 100 * 1000000L;
+
+        try (DatagramChannel datagramChannel = DatagramChannel.open(StandardProtocolFamily.INET)) {
+            NetworkInterface networkInterface = NetworkInterface.getByName(System.getProperty("multicast.interface", "eth3"));
+
+            //set some options
+            datagramChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+            datagramChannel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            datagramChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            datagramChannel.setOption(StandardSocketOptions.SO_SNDBUF, 4 * 1024 * 1024);
+            //subscribers send their NACKs to this address
+            datagramChannel.bind(new InetSocketAddress(NACK_PORT));
+            datagramChannel.configureBlocking(false);
+
+            SequencedMulticastPublisher publisher = new SequencedMulticastPublisher(datagramChannel,
+                    new InetSocketAddress(InetAddress.getByName(GROUP), DEFAULT_PORT),
+                    Integer.getInteger("multicast.ring", 65536), 256, 1400);
+            System.out.println("Sequenced publisher is ready, " + messagesPerSecond + " messages/s to " + GROUP + ":" + DEFAULT_PORT);
+
+            ByteBuffer message = ByteBuffer.allocate(64);
+            long start = System.nanoTime();
+            long published = 0;
+            long nextReport = start + 1000000000L;
+            while (true) {
+                long now = System.nanoTime();
+                long due = (now - start) / 1000000L * messagesPerSecond / 1000;
+                while (published < due) {
+                    message.clear();
+                    message.putLong(now);
+                    while (message.hasRemaining()) {
+                        message.put((byte) published);
+                    }
+                    message.flip();
+                    publisher.publish(message);
+                    published++;
+                }
+                publisher.flush();
+                publisher.serviceNacks();
+                if (publisher.idleNanos() > HEARTBEAT_NANOS) {
+                    publisher.heartbeat();
+                }
+                if (now > nextReport) {
+                    System.out.println("seq=" + publisher.lastSequence() + " retransmitted=" + publisher.retransmitted() + " gone=" + publisher.gone() + " refused=" + publisher.refused());
+                    nextReport += 1000000000L;
+                }
+
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
 }
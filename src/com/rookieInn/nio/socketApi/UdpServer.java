@@ -10,6 +10,21 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.DatagramChannel;
 
 /**
+ * UDP echo server.
+ *
+ *  default: one blocking receive() and one send() per packet, with a line printed for each of them.
+ *  batch:   the high-rate mode, see BatchedDatagramEcho. The receive buffer is raised to udp.rcvbuf and
+ *           packets/s, reply drops and kernel drops are printed every second, so the kernel buffers
+ *           can be sized from real numbers.
+ *      -Dudp.rcvbuf=4194304 -Dudp.sndbuf=4194304 -Dudp.batchSize=64
+ *  shards:  N DatagramChannels bound to the same port with SO_REUSEPORT, each with its own thread,
+ *           batched receive loop and buffers, the kernel spreads the senders over them.
+ *           Where SO_REUSEPORT is not supported a single channel is read by one thread that fans the
+ *           packets out to N worker threads instead (see DatagramFanOut).
+ *      -Dudp.packets=256 (packets in flight in the fan-out fallback)
+ *
+ *  usage: UdpServer [batch | shards [N]]
+ *
  * Created by gxy on 2016/6/29.
  */
 public class UdpServer {
@@ -18,6 +33,9 @@ public class UdpServer {
         final int LOCAL_PORT = 5555;
         final String LOCAL_IP = "127.0.0.1";
         final int MAX_PACKET_SIZE = 65507;
+        final boolean sharded = args.length > 0 && "shards".equals(args[0]);
+        final boolean batch = sharded || args.length > 0 && "batch".equals(args[0]);
+        final int shards = sharded && args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
 
         ByteBuffer echoText = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
 
@@ -27,13 +45,35 @@ public class UdpServer {
             if(datagramChannel.isOpen()) {
                 System.out.println("Echo server was successfully opened!");
                 //set some options
-                datagramChannel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024);
-                datagramChannel.setOption(StandardSocketOptions.SO_SNDBUF, 4 * 1024);
+                if (batch) {
+                    datagramChannel.setOption(StandardSocketOptions.SO_RCVBUF, Integer.getInteger("udp.rcvbuf", 4 * 1024 * 1024));
+                    datagramChannel.setOption(StandardSocketOptions.SO_SNDBUF, Integer.getInteger("udp.sndbuf", 4 * 1024 * 1024));
+                } else {
+                    datagramChannel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024);
+                    datagramChannel.setOption(StandardSocketOptions.SO_SNDBUF, 4 * 1024);
+                }
+                //let the other shards bind the same port
+                boolean reusePort = sharded && datagramChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+                if (reusePort) {
+                    datagramChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
                 //bind the channel to local address
                 datagramChannel.bind(new InetSocketAddress(LOCAL_IP, LOCAL_PORT));
                 System.out.println("Echo server was binded on: " + datagramChannel.getLocalAddress());
                 System.out.println("Echo server is ready to echo ...");
 
+                if (batch) {
+                    System.out.println("Receive buffer: " + datagramChannel.getOption(StandardSocketOptions.SO_RCVBUF) + " bytes");
+                    DatagramStats stats = new DatagramStats();
+                    startReporter(stats, LOCAL_PORT);
+                    if (sharded) {
+                        serveSharded(datagramChannel, reusePort, shards, MAX_PACKET_SIZE, stats);
+                        return;
+                    }
+                    new BatchedDatagramEcho(datagramChannel, Integer.getInteger("udp.batchSize", 64), MAX_PACKET_SIZE, stats).run();
+                    return;
+                }
+
                 //transmitting data packets
                 while(true) {
                     SocketAddress clientAddress = datagramChannel.receive(echoText);
@@ -58,4 +98,47 @@ public class UdpServer {
             System.err.println("\n" + e);
         }
     }
+
+    //shard 0 is the channel already bound, it runs on the calling thread
+    private static void serveSharded(DatagramChannel first, boolean reusePort, int shards, int packetSize, DatagramStats stats) throws IOException {
+        int batchSize = Integer.getInteger("udp.batchSize", 64);
+        if (!reusePort) {
+            System.out.println("SO_REUSEPORT is not supported, one reader fans out to " + shards + " workers");
+            new DatagramFanOut(first, shards, Integer.getInteger("udp.packets", 256), packetSize, stats).run();
+            return;
+        }
+
+        System.out.println("Serving with " + shards + " SO_REUSEPORT shards");
+        for (int i = 1; i < shards; i++) {
+            DatagramChannel shard = DatagramChannel.open(StandardProtocolFamily.INET);
+            shard.setOption(StandardSocketOptions.SO_RCVBUF, first.getOption(StandardSocketOptions.SO_RCVBUF));
+            shard.setOption(StandardSocketOptions.SO_SNDBUF, first.getOption(StandardSocketOptions.SO_SNDBUF));
+            shard.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            shard.bind(first.getLocalAddress());
+
+            Thread thread = new Thread(new BatchedDatagramEcho(shard, batchSize, packetSize, stats), "udp-shard-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        new BatchedDatagramEcho(first, batchSize, packetSize, stats).run();
+    }
+
+    //print the counters once a second
+    static void startReporter(final DatagramStats stats, final int port) {
+        Thread reporter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    stats.report(port);
+                }
+            }
+        }, "udp-stats");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
 }